@@ -16,12 +16,29 @@
 
 package com.worksap.nlp.kintoki.cabocha;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
-public interface Analyzer {
+public interface Analyzer extends Closeable {
 
     public void open(Param param) throws IOException;
 
     public void parse(Tree tree);
 
+    /**
+     * Get the models this analyzer has obtained in {@link #open(Param)}.
+     */
+    public default List<ModelRegistry.Handle<?>> getModels() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Release the models this analyzer has obtained in {@link #open(Param)}.
+     */
+    @Override
+    public default void close() throws IOException {
+    }
+
 }
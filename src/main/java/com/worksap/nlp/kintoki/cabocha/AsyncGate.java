@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs suppliers on an executor, at most a given number at a time. Calls over
+ * the limit wait in a queue without holding a thread, so a parser shared by any
+ * number of asynchronous callers keeps a bounded number of analyzer sessions.
+ */
+class AsyncGate {
+
+    private final Executor executor;
+    private final int limit;
+    private final Queue<Task<?>> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    private static class Task<T> implements Runnable {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Supplier<T> supplier;
+
+        Task(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            // a cancelled call is not parsed
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    AsyncGate(Executor executor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("the concurrency limit must be positive: " + limit);
+        }
+        this.executor = executor;
+        this.limit = limit;
+    }
+
+    <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        Task<T> task = new Task<>(supplier);
+        waiting.add(task);
+        drain();
+        return task.future;
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty()) {
+            int n = running.get();
+            if (n >= limit) {
+                // a running task drains the queue when it finishes
+                return;
+            }
+            if (!running.compareAndSet(n, n + 1)) {
+                continue;
+            }
+            Task<?> task = waiting.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RuntimeException e) {
+                running.decrementAndGet();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parses a set of files into one output file each, in parallel.
+ *
+ * <p>
+ * The progress is recorded in a manifest file in the output directory. Each
+ * line is a checkpoint of one input file:
+ *
+ * <pre>
+ * STATUS\tINPUT_SIZE\tSENTENCES\tINPUT_OFFSET\tOUTPUT_SIZE\tOUTPUT_PATH
+ * </pre>
+ *
+ * where {@code STATUS} is {@code P} for a partially written file and
+ * {@code D} for a completed one. A restarted run skips completed files and
+ * resumes partial ones after the last checkpointed sentence. Gzip files
+ * ({@code .gz}) are written to gzip outputs and only get a {@code D} line.
+ */
+class BatchRunner {
+
+    static final String MANIFEST_NAME = ".kintoki-manifest";
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final Parser parser;
+    private final int threads;
+    private final int inputLayer;
+    private final Path outputDir;
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+    private BufferedWriter manifest;
+
+    static class Checkpoint {
+        final boolean done;
+        final long inputSize;
+        final long sentences;
+        final long inputOffset;
+        final long outputSize;
+
+        Checkpoint(boolean done, long inputSize, long sentences, long inputOffset, long outputSize) {
+            this.done = done;
+            this.inputSize = inputSize;
+            this.sentences = sentences;
+            this.inputOffset = inputOffset;
+            this.outputSize = outputSize;
+        }
+    }
+
+    BatchRunner(Parser parser, int threads, int inputLayer, Path outputDir) {
+        this.parser = parser;
+        this.threads = threads;
+        this.inputLayer = inputLayer;
+        this.outputDir = outputDir;
+    }
+
+    void run(List<String> inputs) throws IOException {
+        Map<Path, Path> files = collectInputs(inputs);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("no input files are found");
+        }
+        Files.createDirectories(outputDir);
+        openManifest();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                ParallelRunner.daemonThreadFactory("kintoki-batch"));
+        try {
+            Map<Path, Future<?>> futures = new LinkedHashMap<>();
+            for (Map.Entry<Path, Path> file : files.entrySet()) {
+                futures.put(file.getKey(), executor.submit(() -> {
+                    processFile(file.getKey(), file.getValue());
+                    return null;
+                }));
+            }
+            int failed = 0;
+            for (Map.Entry<Path, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("failed to parse " + future.getKey() + ": " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted", e);
+                }
+            }
+            if (failed > 0) {
+                throw new IOException(failed + " of " + files.size() + " files failed");
+            }
+        } finally {
+            executor.shutdownNow();
+            manifest.close();
+        }
+    }
+
+    private Map<Path, Path> collectInputs(List<String> inputs) throws IOException {
+        Map<Path, Path> files = new LinkedHashMap<>();
+        for (String input : inputs) {
+            Path base;
+            PathMatcher matcher;
+            boolean relative = false;
+            int glob = indexOfGlob(input);
+            if (glob >= 0) {
+                int separator = input.lastIndexOf('/', glob);
+                relative = separator < 0;
+                base = Paths.get(relative ? "." : input.substring(0, separator + 1));
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+            } else {
+                base = Paths.get(input);
+                matcher = null;
+                if (!Files.isDirectory(base)) {
+                    addInput(files, base, base.getFileName());
+                    continue;
+                }
+            }
+            boolean matchRelative = relative;
+            List<Path> found;
+            try (Stream<Path> walk = Files.walk(base)) {
+                found = walk.filter(Files::isRegularFile)
+                        .filter(p -> matcher == null || matcher.matches(matchRelative ? base.relativize(p) : p))
+                        .sorted().collect(Collectors.toList());
+            }
+            for (Path file : found) {
+                addInput(files, file, base.relativize(file));
+            }
+        }
+        return files;
+    }
+
+    private void addInput(Map<Path, Path> files, Path input, Path relative) throws IOException {
+        Path output = outputDir.resolve(relative.toString()).normalize();
+        if (output.getFileName().toString().equals(MANIFEST_NAME)) {
+            return;
+        }
+        if (Files.exists(output) && Files.isSameFile(input, output)) {
+            throw new IllegalArgumentException("output file overwrites input file: " + input);
+        }
+        if (files.containsValue(output)) {
+            throw new IllegalArgumentException("duplicate output file: " + output);
+        }
+        files.put(input, output);
+    }
+
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (GLOB_CHARS.indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void openManifest() throws IOException {
+        Path path = outputDir.resolve(MANIFEST_NAME);
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t", 6);
+                if (columns.length != 6) {
+                    // a line cut by a crash
+                    continue;
+                }
+                checkpoints.put(columns[5], new Checkpoint(columns[0].equals("D"), Long.parseLong(columns[1]),
+                        Long.parseLong(columns[2]), Long.parseLong(columns[3]), Long.parseLong(columns[4])));
+            }
+        }
+
+        // rewrite the manifest with the last checkpoint of each file only
+        Path tmp = outputDir.resolve(MANIFEST_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                writer.write(format(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        manifest = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private static String format(String path, Checkpoint checkpoint) {
+        return (checkpoint.done ? "D" : "P") + "\t" + checkpoint.inputSize + "\t" + checkpoint.sentences + "\t"
+                + checkpoint.inputOffset + "\t" + checkpoint.outputSize + "\t" + path + "\n";
+    }
+
+    private void record(String path, Checkpoint checkpoint) throws IOException {
+        synchronized (manifest) {
+            manifest.write(format(path, checkpoint));
+            manifest.flush();
+        }
+    }
+
+    private void processFile(Path input, Path output) throws IOException {
+        String key = outputDir.relativize(output).toString();
+        long inputSize = Files.size(input);
+        Checkpoint checkpoint = checkpoints.get(key);
+        if (checkpoint != null && checkpoint.inputSize != inputSize) {
+            checkpoint = null;
+        }
+        if (checkpoint != null && checkpoint.done && Files.exists(output)) {
+            return;
+        }
+        if (checkpoint != null && (!Files.exists(output) || Files.size(output) < checkpoint.outputSize)) {
+            checkpoint = null;
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        if (Cabocha.isGzip(input)) {
+            processGzipFile(input, output, key, inputSize);
+            return;
+        }
+
+        try (MappedSentenceReader reader = MappedSentenceReader.open(input, inputLayer);
+                FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+            long sentences = 0;
+            long inputOffset = 0;
+            long outputOffset = 0;
+            if (checkpoint != null) {
+                sentences = checkpoint.sentences;
+                inputOffset = checkpoint.inputOffset;
+                outputOffset = checkpoint.outputSize;
+            }
+            channel.truncate(outputOffset);
+            channel.position(outputOffset);
+
+            MappedSentenceReader.Cursor cursor = reader.cursor(inputOffset, reader.size());
+            try (TreeOutputSink sink = new TreeOutputSink(channel, false, false)) {
+                String sentence;
+                while ((sentence = cursor.next()) != null) {
+                    sink.write(parser.parse(sentence), parser.getOutputFormat());
+                    if (++sentences % CHECKPOINT_INTERVAL == 0) {
+                        sink.flush();
+                        record(key, new Checkpoint(false, inputSize, sentences, cursor.position(),
+                                outputOffset + sink.position()));
+                    }
+                }
+                sink.flush();
+                record(key, new Checkpoint(true, inputSize, sentences, cursor.position(),
+                        outputOffset + sink.position()));
+            }
+        }
+    }
+
+    /**
+     * A compressed file is parsed from the beginning on every run, since a gzip
+     * stream can be neither truncated nor seeked at a sentence boundary.
+     */
+    private void processGzipFile(Path input, Path output, String key, long inputSize) throws IOException {
+        try (InputStream stream = Cabocha.openGzip(input);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+                TreeOutputSink sink = new TreeOutputSink(Cabocha.createGzip(output), true, false)) {
+            long sentences = 0;
+            String sentence;
+            while ((sentence = Cabocha.readSentence(reader, inputLayer)) != null) {
+                sink.write(parser.parse(sentence), parser.getOutputFormat());
+                sentences++;
+            }
+            sink.flush();
+            record(key, new Checkpoint(true, inputSize, sentences, inputSize, 0));
+        }
+    }
+}
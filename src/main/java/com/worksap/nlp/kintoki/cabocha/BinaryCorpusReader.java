@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads trees from a memory-mapped binary corpus file written by
+ * {@link BinaryCorpusWriter}. Any tree can be fetched by its number in constant
+ * time, and a reader can be used by several threads concurrently.
+ */
+public class BinaryCorpusReader implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long dictionaryOffset;
+    private final long indexOffset;
+    private final long count;
+    private final TreeCodec.Features features;
+
+    private BinaryCorpusReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        int segmentCount = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, size - offset));
+        }
+
+        if (size < BinaryCorpusWriter.HEADER_SIZE + BinaryCorpusWriter.TRAILER_SIZE
+                || !hasMagic(0) || !hasMagic(size - BinaryCorpusWriter.MAGIC.length)) {
+            throw new IOException("not a binary corpus file or an incomplete one");
+        }
+        int version = slice(4, 4).getInt();
+        if (version != BinaryCorpusWriter.VERSION) {
+            throw new IOException("unsupported binary corpus version: " + version);
+        }
+        ByteBuffer trailer = slice(size - BinaryCorpusWriter.TRAILER_SIZE, BinaryCorpusWriter.TRAILER_SIZE);
+        dictionaryOffset = trailer.getLong();
+        indexOffset = trailer.getLong();
+        count = trailer.getLong();
+        if (dictionaryOffset < BinaryCorpusWriter.HEADER_SIZE || indexOffset < dictionaryOffset
+                || indexOffset + count * Long.BYTES != size - BinaryCorpusWriter.TRAILER_SIZE) {
+            throw new IOException("broken binary corpus file");
+        }
+
+        ByteBuffer dictionary = slice(dictionaryOffset, (int) (indexOffset - dictionaryOffset));
+        int featureSize = TreeCodec.readVarint(dictionary);
+        List<String> strings = new ArrayList<>(featureSize);
+        for (int i = 0; i < featureSize; i++) {
+            strings.add(TreeCodec.readString(dictionary));
+        }
+        features = new TreeCodec.Features(strings);
+    }
+
+    /**
+     * Check whether a file starts like a binary corpus file, with the magic
+     * followed by a version number, whose leading zero bytes no text has.
+     *
+     * @param path
+     *            the file
+     * @return true if the file is a binary corpus
+     * @throws IOException
+     *             IOexception will be thrown when the file cannot be read
+     */
+    public static boolean isBinaryCorpus(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (InputStream input = Files.newInputStream(path)) {
+            byte[] header = input.readNBytes(BinaryCorpusWriter.HEADER_SIZE);
+            return header.length == BinaryCorpusWriter.HEADER_SIZE
+                    && Arrays.equals(header, 0, BinaryCorpusWriter.MAGIC.length, BinaryCorpusWriter.MAGIC, 0,
+                            BinaryCorpusWriter.MAGIC.length)
+                    && header[4] == 0 && header[5] == 0;
+        }
+    }
+
+    /**
+     * Map a binary corpus file for reading.
+     *
+     * @param path
+     *            the file to be read
+     * @return a reader of the file
+     * @throws IOException
+     *             IOexception will be thrown when the file cannot be mapped or
+     *             is not a complete binary corpus
+     */
+    public static BinaryCorpusReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BinaryCorpusReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of trees.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Read a tree.
+     *
+     * @param k
+     *            the number of the tree, from 0
+     * @return a new tree
+     */
+    public Tree get(long k) {
+        if (k < 0 || k >= count) {
+            throw new IndexOutOfBoundsException("tree " + k + " of " + count);
+        }
+        long start = slice(indexOffset + k * Long.BYTES, Long.BYTES).getLong();
+        long end = k + 1 < count ? slice(indexOffset + (k + 1) * Long.BYTES, Long.BYTES).getLong()
+                : dictionaryOffset;
+        return TreeCodec.decode(slice(start, (int) (end - start)), features);
+    }
+
+    private boolean hasMagic(long offset) {
+        byte[] magic = new byte[BinaryCorpusWriter.MAGIC.length];
+        slice(offset, magic.length).get(magic);
+        return Arrays.equals(magic, BinaryCorpusWriter.MAGIC);
+    }
+
+    /**
+     * Get a view of the given bytes, copied only if they cross a segment.
+     */
+    private ByteBuffer slice(long offset, int length) {
+        int segment = (int) (offset >>> SEGMENT_SHIFT);
+        int position = (int) (offset & SEGMENT_MASK);
+        if (position + length <= segments[segment].limit()) {
+            return segments[segment].duplicate().position(position).limit(position + length).slice();
+        }
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            int n = Math.min(length - done, SEGMENT_SIZE - position);
+            segments[segment].duplicate().position(position).get(bytes, done, n);
+            done += n;
+            segment++;
+            position = 0;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
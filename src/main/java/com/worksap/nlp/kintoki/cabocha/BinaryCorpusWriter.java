@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes parsed trees into a binary corpus file, which can be read by
+ * {@link BinaryCorpusReader}.
+ *
+ * <p>
+ * The file is laid out as follows; all fixed-width numbers are big-endian.
+ *
+ * <pre>
+ * header     "KTBC" and the version (int)
+ * records    one record per tree, see TreeCodec
+ * dictionary the number of feature strings (varint) and the strings
+ * index      the offset of each record (long)
+ * trailer    the offsets of the dictionary and the index (long), the number of
+ *            records (long) and "KTBC"
+ * </pre>
+ *
+ * <p>
+ * The dictionary, the index and the trailer are written by {@link #finish()}.
+ * A writer closed without it, such as one whose run has failed, deletes the
+ * file, so an incomplete corpus is never taken for a complete one.
+ */
+public class BinaryCorpusWriter implements Closeable {
+
+    static final byte[] MAGIC = { 'K', 'T', 'B', 'C' };
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 28;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Path indexPath;
+    private final DataOutputStream index;
+    private final Map<String, Integer> featureIds = new HashMap<>();
+    private final List<String> features = new ArrayList<>();
+    private final TreeCodec codec = new TreeCodec(this::featureId);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+    private long count;
+    private boolean finished;
+
+    private BinaryCorpusWriter(Path path, FileChannel channel, Path indexPath) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.indexPath = indexPath;
+        this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)));
+        buffer.put(MAGIC).putInt(VERSION);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Create a new binary corpus file.
+     *
+     * @param path
+     *            the file to be written
+     * @return a writer of the file
+     * @throws IOException
+     *             IOexception will be thrown when the file cannot be created
+     */
+    public static BinaryCorpusWriter create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            return new BinaryCorpusWriter(path, channel, Paths.get(path + ".index.tmp"));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private int featureId(String feature) {
+        Integer id = featureIds.get(feature);
+        if (id == null) {
+            id = features.size();
+            featureIds.put(feature, id);
+            features.add(feature);
+        }
+        return id;
+    }
+
+    /**
+     * Append a tree.
+     *
+     * @param tree
+     *            the parsed tree
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in writing the
+     *             file
+     */
+    public void write(Tree tree) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("the binary corpus is already finished");
+        }
+        codec.encode(tree);
+        index.writeLong(position);
+        put(codec.buffer(), codec.length());
+        count++;
+    }
+
+    /**
+     * Get the number of trees written so far.
+     */
+    public long size() {
+        return count;
+    }
+
+    private void put(byte[] bytes, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            int n = Math.min(length - offset, buffer.remaining());
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+        position += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the dictionary, the index and the trailer, which complete the
+     * file.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in writing the
+     *             file
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("the binary corpus is already finished");
+        }
+        long dictionaryOffset = position;
+        TreeCodec dictionary = new TreeCodec(null);
+        dictionary.writeVarint(features.size());
+        for (String feature : features) {
+            dictionary.writeString(feature);
+        }
+        put(dictionary.buffer(), dictionary.length());
+        flushBuffer();
+
+        index.close();
+        long indexOffset = position;
+        try (FileChannel input = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = input.size();
+            long done = 0;
+            while (done < size) {
+                done += input.transferTo(done, size - done, channel);
+            }
+            position += size;
+        }
+
+        buffer.putLong(dictionaryOffset).putLong(indexOffset).putLong(count).put(MAGIC);
+        flushBuffer();
+        finished = true;
+    }
+
+    /**
+     * Close the file, which is deleted unless {@link #finish()} has completed
+     * it.
+     */
+    @Override
+    public void close() throws IOException {
+        try (FileChannel file = channel) {
+            index.close();
+        } finally {
+            Files.deleteIfExists(indexPath);
+            if (!finished) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
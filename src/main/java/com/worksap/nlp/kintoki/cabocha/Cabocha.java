@@ -18,47 +18,133 @@ package com.worksap.nlp.kintoki.cabocha;
 
 import com.worksap.nlp.kintoki.cabocha.util.Utils;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-public class Cabocha {
+public class Cabocha implements Closeable {
+
+    private interface SentenceSource {
+        String next() throws IOException;
+    }
+
+    /**
+     * A sentence or a decoded tree to be parsed.
+     */
+    private interface Job {
+        Tree read(Parser parser);
+
+        default Tree parse(Parser parser) {
+            return parser.parse(read(parser));
+        }
+    }
+
+    private interface JobSource {
+        Job next() throws IOException;
+    }
+
+    private interface JobConsumer {
+        void accept(JobSource input) throws IOException;
+    }
+
+    private static final Job DOCUMENT_END = parser -> null;
+
+    /**
+     * A sentence in text, which is parsed with {@link Parser#parse(String)} so
+     * that the parse cache applies.
+     */
+    private static class SentenceJob implements Job {
+        private final String sentence;
+
+        SentenceJob(String sentence) {
+            this.sentence = sentence;
+        }
+
+        @Override
+        public Tree read(Parser parser) {
+            return parser.read(sentence);
+        }
+
+        @Override
+        public Tree parse(Parser parser) {
+            return parser.parse(sentence);
+        }
+    }
 
     static class FileStdoutStream implements Closeable {
-        PrintStream output;
-        boolean isFile;
+        TreeOutputSink output;
+        boolean autoFlush;
 
         FileStdoutStream(String fileName) throws IOException {
-            if (Utils.check(fileName)) {
-                output = new PrintStream(fileName);
-                isFile = true;
+            if (Utils.check(fileName) && isGzip(Paths.get(fileName))) {
+                // the writer thread compresses while the workers parse
+                output = new TreeOutputSink(createGzip(Paths.get(fileName)), true, true);
+            } else if (Utils.check(fileName)) {
+                FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                output = new TreeOutputSink(channel, true, true);
             } else {
-                output = System.out;
+                System.out.flush();
+                output = new TreeOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), false,
+                        false);
+                // keep the interactive use responsive
+                autoFlush = System.console() != null;
             }
         }
 
-        void print(String x) {
-            output.print(x);
+        long position() {
+            return output.position();
         }
 
-        @Override
-        public void close() {
-            if (isFile) {
-                output.close();
+        void print(String x) throws IOException {
+            output.write(x);
+            if (autoFlush) {
+                output.flush();
+            }
+        }
+
+        void print(Tree tree, FormatType format) throws IOException {
+            output.write(tree, format);
+            if (autoFlush) {
+                output.flush();
             }
         }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
     }
 
     static final Option[] longOptions = {
             new Option("output-format", 'f', 0, "TYPE",
                     "set output format style\n\t\t\t    " + "0 - tree(default)\n\t\t\t    " + "1 - lattice\n\t\t\t    "
-                            + "2 - tree + lattice\n\t\t\t    " + "3 - XML\n\t\t\t    " + "4 - CoNLL"),
+                            + "2 - tree + lattice\n\t\t\t    " + "3 - XML\n\t\t\t    " + "4 - CoNLL\n\t\t\t    "
+                            + "6 - JSON Lines\n\t\t\t    " + "7 - binary corpus(needs -o)"),
             new Option("input-layer", 'I', 0, "LAYER",
                     "set input layer\n\t\t\t    " + "0 - raw sentence layer(default)\n\t\t\t    "
                             + "1 - POS tagged layer\n\t\t\t    " + "2 - POS tagger and Chunked layer\n\t\t\t    "
@@ -71,9 +157,27 @@ public class Cabocha {
             new Option("rcfile", 'r', null, "FILE", "use FILE as resource file"),
             new Option("sudachi-dict", 'd', null, "DIR", "use DIR as sudachi dictionary directory"),
             new Option("output", 'o', null, "FILE", "use FILE as output file"),
+            new Option("output-dir", 'D', null, "DIR",
+                    "write one output file per input file into DIR, resuming an interrupted run"),
+            new Option("server", 'S', null, "PORT", "run as an HTTP server on PORT"),
+            new Option("watch", 'w', null, null, "reload the models of the server when their files change"),
+            new Option("coprocess", 'c', null, null, "serve framed requests on stdin and stdout"),
+            new Option("threads", 't', 1, "NUM", "use NUM worker threads(default 1)"),
+            new Option("stats", 's', null, null, "report throughput and latency on stderr"),
+            new Option("document", 'p', null, null,
+                    "split raw input into sentences and mark the end of each blank-line separated document"),
+            new Option("pipeline", 'P', null, null, "run each analyzer on its own thread as a pipeline"),
+            new Option("cache", 'C', null, "MB", "cache the results of repeated sentences in MB megabytes of memory"),
+            new Option("disk-cache", 'K', null, "DIR", "keep the results of parsed sentences in DIR across runs"),
+            new Option("shard", 'x', null, "I/N", "parse only shard I of N of the input files into the output file"),
+            new Option("merge", 'g', null, null, "merge the shard outputs given as files in the input order"),
             new Option("version", 'v', null, null, "show the version and exit"),
             new Option("help", 'h', null, null, "show this help and exit"), };
 
+    private static final int MAX_PENDING_PER_THREAD = 64;
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+    private static final int STATS_INTERVAL_SECONDS = 10;
+
     private Parser parser = null;
 
     /**
@@ -136,6 +240,48 @@ public class Cabocha {
         return parser.parse(sent);
     }
 
+    /**
+     * Parse a given sentence asynchronously.
+     *
+     * @param sent
+     *            the sentence to be parsed
+     * @return a future of the tree
+     * @see Parser#parseAsync(String)
+     */
+    public CompletableFuture<Tree> parseAsync(String sent) {
+        return parser.parseAsync(sent);
+    }
+
+    /**
+     * Parse a batch of sentences in parallel.
+     *
+     * @param sents
+     *            the sentences to be parsed
+     * @return the trees in the order of {@code sents}
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading files
+     *             (such as model file, resource file)
+     * @see Parser#parseBatch(List)
+     */
+    public List<Tree> parseBatch(List<String> sents) throws IOException {
+        return parser.parseBatch(sents);
+    }
+
+    /**
+     * Parse a batch of sentence trees in parallel.
+     *
+     * @param sents
+     *            the sentence trees to be parsed
+     * @return the trees in the order of {@code sents}
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading files
+     *             (such as model file, resource file)
+     * @see Parser#parseTreeBatch(List)
+     */
+    public List<Tree> parseTreeBatch(List<Tree> sents) throws IOException {
+        return parser.parseTreeBatch(sents);
+    }
+
     /**
      * Parse a given sentence.
      *
@@ -151,6 +297,18 @@ public class Cabocha {
         return tree.toString(FormatType.FORMAT_LATTICE);
     }
 
+    /**
+     * Release the models of the parser.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in closing a
+     *             model
+     */
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
     /**
      * Parse from command line.
      *
@@ -162,38 +320,463 @@ public class Cabocha {
      */
     public static void parse(String[] args) throws IOException {
         Param param = buildParam(args);
-        Parser parser = new Parser(param);
-        parser.open();
+        int threads = param.getInt(Param.THREADS);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+
+        String port = param.getString(Param.SERVER);
+        if (Utils.check(port)) {
+            CabochaServer server = new CabochaServer(param, threads);
+            server.start(Integer.parseInt(port));
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.err.println(Constant.PACKAGE + " is listening on port " + server.getPort());
+            return;
+        }
+
+        ParseStats stats = null;
+        if (Utils.check(param.getString(Param.STATS))) {
+            stats = new ParseStats(System.err);
+            stats.startReporting(STATS_INTERVAL_SECONDS);
+        }
+        try {
+            if (Utils.check(param.getString(Param.MERGE))) {
+                Shards.merge(param.getRest(), param.getString(Param.OUTPUT));
+                return;
+            }
+
+            Parser parser = new Parser(param);
+            parser.open();
+            // a recording started with -XX:StartFlightRecording gets the parse events
+            parser.setMonitor(ParserMonitor.compose(stats, JfrMonitor.isRecording() ? new JfrMonitor() : null));
+            if (stats != null) {
+                stats.setCache(parser.getCache());
+                stats.setDiskCache(parser.getDiskCache());
+            }
+            try {
+                run(param, parser, threads);
+            } finally {
+                parser.close();
+            }
+        } finally {
+            if (stats != null) {
+                stats.close();
+            }
+        }
+    }
 
+    private static void run(Param param, Parser parser, int threads) throws IOException {
         int inputLayer = param.getInt(Param.INPUT_LAYER);
         List<String> rest = param.getRest();
 
-        try (FileStdoutStream output = new FileStdoutStream(param.getString(Param.OUTPUT))) {
-            if (rest.isEmpty()) {
-                run(parser, inputLayer, System.in, output);
-            } else {
-                for (String inputFileName : rest) {
-                    try (FileInputStream input = new FileInputStream(inputFileName)) {
-                        run(parser, inputLayer, input, output);
+        boolean pipeline = Utils.check(param.getString(Param.PIPELINE));
+        if (pipeline && (threads > 1 || Utils.check(param.getString(Param.COPROCESS))
+                || Utils.check(param.getString(Param.OUTPUT_DIR)) || Utils.check(param.getString(Param.SHARD))
+                || parser.getOutputFormat() == FormatType.FORMAT_BINARY)) {
+            throw new IllegalArgumentException("pipeline mode cannot be combined with threads, coprocess, "
+                    + "output-dir, shard or the binary format");
+        }
+
+        if (Utils.check(param.getString(Param.COPROCESS))) {
+            System.out.flush();
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out))) {
+                new CoprocessRunner(parser, threads, inputLayer, output).run(System.in);
+            }
+            return;
+        }
+
+        String outputDir = param.getString(Param.OUTPUT_DIR);
+        if (Utils.check(outputDir)) {
+            new BatchRunner(parser, threads, inputLayer, Paths.get(outputDir)).run(rest);
+            return;
+        }
+
+        String documentEnd = null;
+        if (Utils.check(param.getString(Param.DOCUMENT))) {
+            if (inputLayer != Constant.CABOCHA_INPUT_RAW_SENTENCE) {
+                throw new IllegalArgumentException("document mode requires the raw sentence input layer");
+            }
+            documentEnd = documentEnd(parser.getOutputFormat());
+        }
+
+        String shard = param.getString(Param.SHARD);
+        if (Utils.check(shard)) {
+            if (documentEnd != null) {
+                throw new IllegalArgumentException("document mode cannot be sharded");
+            }
+            runShard(new Shards(shard), parser, threads, inputLayer, rest, param.getString(Param.OUTPUT));
+            return;
+        }
+
+        if (parser.getOutputFormat() == FormatType.FORMAT_BINARY) {
+            if (documentEnd != null) {
+                throw new IllegalArgumentException("document mode cannot write the binary format");
+            }
+            runBinary(parser, threads, inputLayer, rest, param.getString(Param.OUTPUT));
+            return;
+        }
+
+        if (pipeline) {
+            try (FileStdoutStream output = new FileStdoutStream(param.getString(Param.OUTPUT))) {
+                runPipelined(parser, inputLayer, rest, documentEnd, output);
+            }
+            return;
+        }
+
+        String documentEndLine = documentEnd;
+        try (FileStdoutStream output = new FileStdoutStream(param.getString(Param.OUTPUT));
+                ParallelRunner<String> runner = threads > 1
+                        ? new ParallelRunner<>(threads, threads * MAX_PENDING_PER_THREAD, output::print)
+                        : null) {
+            forEachInput(rest, inputLayer, documentEnd != null,
+                    input -> run(parser, runner, input, documentEndLine, output));
+            if (runner != null) {
+                runner.finish();
+            }
+        }
+
+    }
+
+    /**
+     * Parse every input with a {@link PipelinedParser}. A reader thread submits
+     * the sentences while this thread writes the trees.
+     */
+    private static void runPipelined(Parser parser, int inputLayer, List<String> rest, String documentEnd,
+            FileStdoutStream output) throws IOException {
+        // the number of trees submitted before each document end
+        Queue<Long> documentEnds = new ConcurrentLinkedQueue<>();
+        AtomicReference<Exception> readError = new AtomicReference<>();
+        try (PipelinedParser pipeline = new PipelinedParser(parser)) {
+            Thread reader = ParallelRunner.daemonThreadFactory("kintoki-reader").newThread(() -> {
+                long[] submitted = { 0 };
+                try {
+                    forEachInput(rest, inputLayer, documentEnd != null, input -> {
+                        Job job;
+                        while ((job = input.next()) != null) {
+                            if (job == DOCUMENT_END) {
+                                documentEnds.add(submitted[0]);
+                                continue;
+                            }
+                            try {
+                                pipeline.submit(job.read(parser));
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException("interrupted while reading input");
+                            }
+                            submitted[0]++;
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    readError.set(e);
+                } finally {
+                    try {
+                        pipeline.finish();
+                    } catch (InterruptedException e) {
+                        // the pipeline is closed
+                    }
+                }
+            });
+            reader.start();
+            try {
+                long taken = 0;
+                Tree tree;
+                while ((tree = pipeline.take()) != null) {
+                    printDocumentEnds(documentEnds, taken, documentEnd, output);
+                    output.print(tree, parser.getOutputFormat());
+                    taken++;
+                }
+                printDocumentEnds(documentEnds, Long.MAX_VALUE, documentEnd, output);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while writing output");
+            } finally {
+                reader.interrupt();
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        Exception e = readError.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    private static void printDocumentEnds(Queue<Long> documentEnds, long taken, String documentEnd,
+            FileStdoutStream output) throws IOException {
+        Long position;
+        while ((position = documentEnds.peek()) != null && position <= taken) {
+            documentEnds.poll();
+            output.print(documentEnd);
+        }
+    }
+
+    private static void runBinary(Parser parser, int threads, int inputLayer, List<String> rest,
+            String outputFile) throws IOException {
+        if (!Utils.check(outputFile)) {
+            throw new IllegalArgumentException("the binary format requires an output file");
+        }
+
+        try (BinaryCorpusWriter output = BinaryCorpusWriter.create(Paths.get(outputFile));
+                ParallelRunner<Tree> runner = threads > 1
+                        ? new ParallelRunner<>(threads, threads * MAX_PENDING_PER_THREAD, output::write)
+                        : null) {
+            forEachInput(rest, inputLayer, false, input -> {
+                Job job;
+                if (runner == null) {
+                    while ((job = input.next()) != null) {
+                        output.write(job.parse(parser));
+                    }
+                } else {
+                    while ((job = input.next()) != null) {
+                        Job target = job;
+                        runner.submit(() -> target.parse(parser));
+                    }
+                }
+            });
+            if (runner != null) {
+                runner.finish();
+            }
+            output.finish();
+        }
+    }
+
+    private static void runShard(Shards shards, Parser parser, int threads, int inputLayer, List<String> rest,
+            String outputFile) throws IOException {
+        if (rest.isEmpty()) {
+            throw new IllegalArgumentException("shard mode requires input files");
+        }
+        if (!Utils.check(outputFile) || isGzip(Paths.get(outputFile))) {
+            throw new IllegalArgumentException("shard mode requires an uncompressed output file");
+        }
+        if (parser.getOutputFormat() == FormatType.FORMAT_BINARY) {
+            throw new IllegalArgumentException("shard mode cannot write the binary format");
+        }
+
+        try (FileStdoutStream output = new FileStdoutStream(outputFile);
+                ParallelRunner<String> runner = threads > 1
+                        ? new ParallelRunner<>(threads, threads * MAX_PENDING_PER_THREAD, output::print)
+                        : null) {
+            for (int file = 0; file < rest.size(); file++) {
+                Path path = Paths.get(rest.get(file));
+                long start = output.position();
+                int range;
+                if (isGzip(path)) {
+                    if (!shards.ownsFile(file)) {
+                        continue;
+                    }
+                    range = 0;
+                    try (InputStream input = openGzip(path)) {
+                        readStream(input, inputLayer, false, source -> run(parser, runner, source, null, output));
+                    }
+                } else if (BinaryCorpusReader.isBinaryCorpus(path)) {
+                    // a binary corpus is split by sentence ordinals
+                    range = shards.index;
+                    try (BinaryCorpusReader input = BinaryCorpusReader.open(path)) {
+                        long size = input.size();
+                        run(parser, runner, jobs(input, size * range / shards.count,
+                                size * (range + 1) / shards.count, inputLayer), null, output);
+                    }
+                } else {
+                    range = shards.index;
+                    try (MappedSentenceReader input = MappedSentenceReader.open(path, inputLayer)) {
+                        long[] points = input.splitPoints(shards.count);
+                        run(parser, runner, jobs(input.cursor(points[range], points[range + 1])::next, false),
+                                null, output);
                     }
                 }
+                if (runner != null) {
+                    runner.finish();
+                }
+                shards.addSegment(file, range, output.position() - start);
             }
         }
+        shards.writeIndex(Paths.get(outputFile));
+    }
 
+    /**
+     * Open every input, or the standard input if there are none, and pass the
+     * jobs read from it to a consumer.
+     */
+    private static void forEachInput(List<String> rest, int inputLayer, boolean document, JobConsumer consumer)
+            throws IOException {
+        if (rest.isEmpty()) {
+            readStream(System.in, inputLayer, document, consumer);
+            return;
+        }
+        for (String inputFileName : rest) {
+            Path path = Paths.get(inputFileName);
+            if (isGzip(path)) {
+                try (InputStream input = openGzip(path)) {
+                    readStream(input, inputLayer, document, consumer);
+                }
+            } else if (BinaryCorpusReader.isBinaryCorpus(path)) {
+                try (BinaryCorpusReader input = BinaryCorpusReader.open(path)) {
+                    consumer.accept(jobs(input, 0, input.size(), inputLayer));
+                }
+            } else if (document) {
+                try (InputStream input = Files.newInputStream(path)) {
+                    readStream(input, inputLayer, true, consumer);
+                }
+            } else {
+                try (MappedSentenceReader input = MappedSentenceReader.open(path, inputLayer)) {
+                    consumer.accept(jobs(input.cursor()::next, false));
+                }
+            }
+        }
     }
 
-    private static void run(Parser parser, int inputLayer, InputStream input, FileStdoutStream output)
+    private static void readStream(InputStream input, int inputLayer, boolean document, JobConsumer consumer)
             throws IOException {
-        try (InputStreamReader inputReader = new InputStreamReader(input);
+        try (InputStreamReader inputReader = new InputStreamReader(input, StandardCharsets.UTF_8);
                 BufferedReader reader = new BufferedReader(inputReader)) {
-            String sentence = null;
-            while ((sentence = readSentence(reader, inputLayer)) != null) {
-                output.print(parser.parseToString(sentence));
+            if (document) {
+                consumer.accept(jobs(new SentenceSplitter(reader)::next, true));
+            } else {
+                consumer.accept(jobs(() -> readSentence(reader, inputLayer), false));
             }
         }
     }
 
-    private static String readSentence(BufferedReader input, int inputLayer) throws IOException {
+    /**
+     * Create jobs from sentences. In document mode, an empty sentence is the end
+     * of a document.
+     */
+    private static JobSource jobs(SentenceSource input, boolean document) {
+        return () -> {
+            String sentence = input.next();
+            if (sentence == null) {
+                return null;
+            } else if (document && sentence.isEmpty()) {
+                return DOCUMENT_END;
+            }
+            return new SentenceJob(sentence);
+        };
+    }
+
+    /**
+     * Create jobs from the trees {@code [start, end)} of a binary corpus. The
+     * trees are decoded by the workers.
+     */
+    private static JobSource jobs(BinaryCorpusReader input, long start, long end, int inputLayer) {
+        long[] next = { start };
+        return () -> {
+            if (next[0] >= end) {
+                return null;
+            }
+            long k = next[0]++;
+            return parser -> asInputLayer(input.get(k), inputLayer);
+        };
+    }
+
+    /**
+     * Make a decoded tree look like a tree read from the given input layer.
+     */
+    static Tree asInputLayer(Tree tree, int inputLayer) {
+        int layer = tree.getOutputLayer() == null ? 0 : tree.getOutputLayer().getValue();
+        if (layer < inputLayer) {
+            throw new IllegalArgumentException(
+                    "the binary corpus has output layer " + layer + ", which is lower than input layer " + inputLayer);
+        }
+        if (inputLayer <= Constant.CABOCHA_INPUT_POS) {
+            tree.setChunks(new ArrayList<>());
+        } else if (inputLayer <= Constant.CABOCHA_INPUT_CHUNK) {
+            // the layers above are analyzed again, as for a chunk header without them
+            for (Chunk chunk : tree.getChunks()) {
+                chunk.setLink(-1);
+                chunk.setScore(0);
+                chunk.setHeadPos(0);
+                chunk.setFuncPos(0);
+                chunk.setFeatureList(new ArrayList<>());
+            }
+        }
+        if (inputLayer == Constant.CABOCHA_INPUT_RAW_SENTENCE) {
+            tree.setTokens(new ArrayList<>());
+        }
+        return tree;
+    }
+
+    /**
+     * Parse every job of a source. {@link #DOCUMENT_END} is written as
+     * {@code documentEnd}.
+     */
+    private static void run(Parser parser, ParallelRunner<String> runner, JobSource input, String documentEnd,
+            FileStdoutStream output) throws IOException {
+        Job job;
+        if (runner == null) {
+            while ((job = input.next()) != null) {
+                if (job == DOCUMENT_END) {
+                    output.print(documentEnd);
+                } else {
+                    output.print(job.parse(parser), parser.getOutputFormat());
+                }
+            }
+        } else {
+            while ((job = input.next()) != null) {
+                if (job == DOCUMENT_END) {
+                    runner.emit(documentEnd);
+                } else {
+                    Job target = job;
+                    runner.submit(() -> target.parse(parser).toString(parser.getOutputFormat()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the line which marks the end of a document in the given format.
+     */
+    static String documentEnd(FormatType format) {
+        switch (format) {
+        case FORMAT_JSON:
+            return "{\"document_end\":true}\n";
+        case FORMAT_XML:
+            return "<document_end/>\n";
+        case FORMAT_CONLL:
+            return "# document_end\n\n";
+        default:
+            return "EOD\n";
+        }
+    }
+
+    static void parseSentences(Parser parser, BufferedReader reader, int inputLayer, FormatType format,
+            StringBuilder sb) throws IOException {
+        String sentence;
+        while ((sentence = readSentence(reader, inputLayer)) != null) {
+            Tree tree = parser.parse(sentence);
+            tree.writeTree(sb, tree.getOutputLayer(), format);
+        }
+    }
+
+    static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+    static InputStream openGzip(Path path) throws IOException {
+        InputStream input = Files.newInputStream(path);
+        try {
+            return new GZIPInputStream(input, GZIP_BUFFER_SIZE);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    static WritableByteChannel createGzip(Path path) throws IOException {
+        OutputStream output = Files.newOutputStream(path);
+        try {
+            return Channels.newChannel(new GZIPOutputStream(output, GZIP_BUFFER_SIZE));
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    static String readSentence(BufferedReader input, int inputLayer) throws IOException {
         if (inputLayer == Constant.CABOCHA_INPUT_RAW_SENTENCE) {
             return input.readLine();
         } else {
@@ -238,13 +821,24 @@ public class Cabocha {
 
         newParam.update(param);
 
-        if (newParam.getInt(Param.OUTPUT_LAYER) != Constant.CABOCHA_OUTPUT_DEP) {
-            newParam.set(Param.OUTPUT_FORMAT, Constant.CABOCHA_FORMAT_LATTICE);
-        }
+        newParam.set(Param.OUTPUT_FORMAT,
+                formatForLayer(newParam.getInt(Param.OUTPUT_LAYER), newParam.getInt(Param.OUTPUT_FORMAT)));
 
         return newParam;
     }
 
+    /**
+     * The tree format needs dependencies, so lower output layers fall back to
+     * the lattice format.
+     */
+    static int formatForLayer(int outputLayer, int outputFormat) {
+        if (outputLayer != Constant.CABOCHA_OUTPUT_DEP && (outputFormat == Constant.CABOCHA_FORMAT_TREE
+                || outputFormat == Constant.CABOCHA_FORMAT_TREE_LATTICE)) {
+            return Constant.CABOCHA_FORMAT_LATTICE;
+        }
+        return outputFormat;
+    }
+
     static String helpVersion(Param param) {
         if (Utils.check(param.getString("help"))) {
             String systemName = System.getProperty("java.home") + "/bin/java -jar "
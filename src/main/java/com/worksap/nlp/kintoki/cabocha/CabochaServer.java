@@ -0,0 +1,311 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.worksap.nlp.kintoki.cabocha.util.Utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An HTTP server which keeps the models loaded and parses requests with a
+ * shared parser for each combination of layers.
+ *
+ * <p>
+ * {@code POST /parse} parses the request body, which holds sentences in the
+ * same form as the CLI input. The query parameters {@code input-layer},
+ * {@code output-layer} and {@code output-format} override the configuration
+ * for the request. The body is at most 8 MiB long, and a longer one is
+ * answered with 413. {@code GET /health} answers {@code OK}.
+ *
+ * <p>
+ * {@code POST /reload} reloads the models of every parser with
+ * {@link Parser#reload()}, without pausing the requests being parsed. With the
+ * parameter {@code watch}, the models are also reloaded when their files
+ * change.
+ */
+public class CabochaServer {
+
+    private static final int MAX_BODY_LENGTH = 8 << 20;
+
+    private final Param param;
+    private final int threads;
+    private final Map<String, Parser> parsers = new ConcurrentHashMap<>();
+    private final ParseCache cache;
+    private final DiskParseCache diskCache;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ModelWatcher watcher;
+
+    /**
+     * Create a new server.
+     *
+     * @param param
+     *            configuration parameters, used as the default of each request
+     * @param threads
+     *            the number of requests parsed concurrently
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading files
+     *             (such as model file, resource file)
+     */
+    public CabochaServer(Param param, int threads) throws IOException {
+        this.param = param;
+        this.threads = threads;
+        int cacheSize = param.getInt(Param.CACHE);
+        this.cache = cacheSize > 0 ? new ParseCache((long) cacheSize << 20) : null;
+        String diskCacheDir = param.getString(Param.DISK_CACHE);
+        this.diskCache = Utils.check(diskCacheDir) ? new DiskParseCache(Paths.get(diskCacheDir)) : null;
+        parser(param.getInt(Param.INPUT_LAYER), param.getInt(Param.OUTPUT_LAYER));
+    }
+
+    /**
+     * Start listening on a port.
+     *
+     * @param port
+     *            the port number
+     * @throws IOException
+     *             IOexception will be thrown when the port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        executor = Executors.newFixedThreadPool(threads, ParallelRunner.daemonThreadFactory("kintoki-server"));
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/parse", this::handleParse);
+        server.createContext("/health", exchange -> respond(exchange, 200, "OK\n"));
+        server.createContext("/reload", this::handleReload);
+        server.start();
+        if (Utils.check(param.getString(Param.WATCH))) {
+            List<Path> paths = new ArrayList<>();
+            for (String key : new String[] { Param.PARSER_MODEL, Param.CHUNKER_MODEL }) {
+                String path = param.getString(key);
+                if (Utils.check(path) && Files.exists(Paths.get(path))) {
+                    paths.add(Paths.get(path));
+                }
+            }
+            String dictPath = param.getString(Param.SUDACHI_DICT);
+            if (Utils.check(dictPath)) {
+                // the dictionary files, not the directory which may hold anything
+                paths.addAll(SudachiTokenizer.dictionaryFiles(dictPath));
+            }
+            watcher = new ModelWatcher(paths, this::reloadChanged, ModelWatcher.DEFAULT_QUIET_MILLIS);
+        }
+    }
+
+    /**
+     * Reload the models of every parser of this server.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when the models of a parser fail
+     *             to load, which keeps its current models
+     */
+    public void reload() throws IOException {
+        IOException error = null;
+        for (Parser parser : parsers.values()) {
+            try {
+                parser.reload();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void reloadChanged() {
+        try {
+            reload();
+            System.err.println("reloaded the models");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("failed to reload the models, keeping the current ones: " + e);
+        }
+    }
+
+    public void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("failed to stop watching the models: " + e);
+            }
+        }
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        try {
+            for (Parser parser : parsers.values()) {
+                parser.close();
+            }
+            if (diskCache != null) {
+                diskCache.close();
+            }
+        } catch (IOException e) {
+            System.err.println("failed to release the models: " + e);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private Parser parser(int inputLayer, int outputLayer) throws IOException {
+        String key = inputLayer + ":" + outputLayer;
+        Parser parser = parsers.get(key);
+        if (parser != null) {
+            return parser;
+        }
+        try {
+            return parsers.computeIfAbsent(key, k -> {
+                Param parserParam = new Param();
+                parserParam.update(param);
+                parserParam.set(Param.INPUT_LAYER, inputLayer);
+                parserParam.set(Param.OUTPUT_LAYER, outputLayer);
+                // every layer combination shares the caches, which key the layers
+                parserParam.set(Param.CACHE, 0);
+                parserParam.set(Param.DISK_CACHE, null);
+                Parser created = new Parser(parserParam);
+                try {
+                    created.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    // a model file which is broken or missing
+                    throw new UncheckedIOException(new IOException("failed to load the models", e));
+                }
+                created.setCache(cache);
+                created.setDiskCache(diskCache);
+                return created;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void handleParse(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST is required\n");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int inputLayer = getInt(query, Param.INPUT_LAYER);
+            int outputLayer = getInt(query, Param.OUTPUT_LAYER);
+            FormatType format = Parser
+                    .toFormatType(Cabocha.formatForLayer(outputLayer, getInt(query, Param.OUTPUT_FORMAT)));
+
+            byte[] body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = input.readNBytes(MAX_BODY_LENGTH + 1);
+            }
+            if (body.length > MAX_BODY_LENGTH) {
+                respond(exchange, 413, "the request body is longer than " + MAX_BODY_LENGTH + " bytes\n");
+                return;
+            }
+            Parser parser;
+            try {
+                parser = parser(inputLayer, outputLayer);
+            } catch (IOException e) {
+                respond(exchange, 500, e + "\n");
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+                Cabocha.parseSentences(parser, reader, inputLayer, format, sb);
+            }
+            respond(exchange, 200, sb.toString());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            respond(exchange, 500, e + "\n");
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "POST is required\n");
+            return;
+        }
+        try {
+            reload();
+            respond(exchange, 200, "OK\n");
+        } catch (IOException | RuntimeException e) {
+            respond(exchange, 500, e + "\n");
+        }
+    }
+
+    private int getInt(Map<String, String> query, String key) {
+        String value = query.get(key);
+        if (value == null) {
+            return param.getInt(key);
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + key + ": " + value, e);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                result.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
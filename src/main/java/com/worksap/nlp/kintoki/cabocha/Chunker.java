@@ -17,57 +17,101 @@
 package com.worksap.nlp.kintoki.cabocha;
 
 import com.worksap.nlp.kintoki.cabocha.crf.Tagger;
+import com.worksap.nlp.kintoki.cabocha.crf.TaggerModel;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Chunker implements Analyzer {
 
     private static final double CRF_COST_FACTOR = 1.0;
 
-    private Tagger tagger;
+    private ModelRegistry.Handle<TaggerModel> model;
+    private SessionPool<Tagger> taggers;
     private int beginLabel;
 
     @Override
     public void open(Param param) throws IOException {
-        String path = param.getString(Param.CHUNKER_MODEL);
-        tagger = Tagger.openBinaryModel(path, CRF_COST_FACTOR);
-        beginLabel = tagger.ynames().indexOf("B");
+        model = ModelRegistry.getDefault().acquire(Param.CHUNKER_MODEL, param.getString(Param.CHUNKER_MODEL),
+                path -> TaggerModel.openBinaryModel(path, CRF_COST_FACTOR));
+        TaggerModel loaded = model.get();
+        taggers = new SessionPool<>(loaded::createTagger);
+        beginLabel = loaded.ynames().indexOf("B");
+    }
+
+    @Override
+    public List<ModelRegistry.Handle<?>> getModels() {
+        return model == null ? Collections.emptyList() : Collections.singletonList(model);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (model != null) {
+            model.close();
+        }
     }
 
     @Override
     public void parse(Tree tree) {
+        Tagger tagger = taggers.acquire();
+        try {
+            parse(tree, tagger, 0);
+        } finally {
+            tagger.clear();
+            taggers.release(tagger);
+        }
+    }
+
+    /**
+     * Create a tagger of the model for an incremental session, which keeps it
+     * between the parses of the session.
+     */
+    Tagger createTagger() {
+        return model.get().createTagger();
+    }
+
+    /**
+     * Chunk a tree with the tagger of its previous parse, of which the tokens
+     * before {@code from} are unchanged. The chunks which only hold unchanged
+     * tokens keep their objects, except the last one.
+     *
+     * @return the number of leading chunks kept
+     */
+    int parse(Tree tree, Tagger tagger, int from) {
         int tokenSize = tree.getTokenSize();
-        for (int i = 0; i < tokenSize; i++) {
+        tagger.truncate(from);
+        for (int i = from; i < tokenSize; i++) {
             tagger.add(tree.token(i).getNormalizedSurface(), getPos(tree.token(i).getFeatureList()));
         }
 
         tagger.parse();
 
+        List<Chunk> previous = new ArrayList<>(tree.getChunks());
+        List<Chunk> chunks = tree.getChunks();
+        chunks.clear();
+        int kept = 0;
         int tokenPos = 0;
-        List<Token> tokens = new ArrayList<>();
-        for (int i = 0; i < tokenSize; i++) {
-            if (i > 0 && tagger.y(i) == beginLabel) {
-                Chunk chunk = new Chunk();
-                chunk.setTokenPos(tokenPos);
-                chunk.getTokens().addAll(tokens);
-                tree.getChunks().add(chunk);
-                tokenPos = i;
-                tokens = new ArrayList<>();
+        for (int i = 1; i <= tokenSize; i++) {
+            if (i < tokenSize && tagger.y(i) != beginLabel) {
+                continue;
             }
-            tokens.add(tree.getTokens().get(i));
-            if (i == tokenSize - 1) {
+            if (kept == chunks.size() && kept < previous.size() - 1 && i <= from
+                    && previous.get(kept).getTokenPos() == tokenPos
+                    && previous.get(kept).getTokenSize() == i - tokenPos) {
+                chunks.add(previous.get(kept++));
+            } else {
                 Chunk chunk = new Chunk();
                 chunk.setTokenPos(tokenPos);
-                chunk.getTokens().addAll(tokens);
-                tree.getChunks().add(chunk);
+                chunk.getTokens().addAll(tree.getTokens().subList(tokenPos, i));
+                chunks.add(chunk);
             }
+            tokenPos = i;
         }
 
-        tagger.clear();
-
         tree.setOutputLayer(OutputLayerType.OUTPUT_CHUNK);
+        return kept;
     }
 
     private String getPos(List<String> featureList) {
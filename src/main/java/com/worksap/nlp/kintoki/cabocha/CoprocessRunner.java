@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves framed parse requests over a pair of streams, usually stdin and
+ * stdout of a co-process.
+ *
+ * <p>
+ * A request is a header line {@code ID LENGTH} followed by {@code LENGTH}
+ * bytes of UTF-8 text, which holds sentences in the same form as the CLI
+ * input, and is at most 64 MiB long. A response is a header line
+ * {@code ID STATUS LENGTH} followed by {@code LENGTH} bytes of UTF-8 text,
+ * where {@code STATUS} is {@code OK} or {@code ERR}. {@code ID} is any string
+ * without white spaces chosen by the caller. Requests are parsed concurrently,
+ * so responses may arrive in a different order than the requests.
+ */
+class CoprocessRunner {
+
+    private static final int MAX_HEADER_LENGTH = 1024;
+    private static final int MAX_PENDING_PER_THREAD = 64;
+    private static final int MAX_BODY_LENGTH = 64 << 20;
+
+    private final Parser parser;
+    private final int threads;
+    private final int inputLayer;
+    private final Semaphore pending;
+    private final OutputStream output;
+    private volatile IOException outputError;
+
+    CoprocessRunner(Parser parser, int threads, int inputLayer, OutputStream output) {
+        this.parser = parser;
+        this.threads = threads;
+        this.inputLayer = inputLayer;
+        this.pending = new Semaphore(threads * MAX_PENDING_PER_THREAD);
+        this.output = output;
+    }
+
+    void run(InputStream input) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                ParallelRunner.daemonThreadFactory("kintoki-coprocess"));
+        try {
+            String header;
+            while ((header = readHeader(input)) != null) {
+                String[] columns = header.trim().split(" +");
+                if (columns.length != 2) {
+                    throw new IOException("invalid request header: " + header);
+                }
+                String id = columns[0];
+                int length;
+                try {
+                    length = Integer.parseInt(columns[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid request length: " + header, e);
+                }
+                if (length < 0 || length > MAX_BODY_LENGTH) {
+                    throw new IOException("invalid request length: " + header);
+                }
+                byte[] body = input.readNBytes(length);
+                if (body.length != length) {
+                    throw new EOFException("unexpected end of request " + id);
+                }
+
+                pending.acquire();
+                executor.execute(() -> {
+                    try {
+                        handle(id, new String(body, StandardCharsets.UTF_8));
+                    } finally {
+                        pending.release();
+                    }
+                });
+                checkOutput();
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            checkOutput();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while serving requests");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(String id, String body) {
+        String status = "OK";
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new StringReader(body))) {
+            Cabocha.parseSentences(parser, reader, inputLayer, parser.getOutputFormat(), sb);
+        } catch (IOException | RuntimeException e) {
+            status = "ERR";
+            sb.setLength(0);
+            sb.append(e.getMessage()).append('\n');
+        }
+
+        byte[] payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] header = (id + " " + status + " " + payload.length + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (output) {
+            try {
+                output.write(header);
+                output.write(payload);
+                output.flush();
+            } catch (IOException e) {
+                outputError = e;
+            }
+        }
+    }
+
+    private void checkOutput() throws IOException {
+        IOException e = outputError;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static String readHeader(InputStream input) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        while (true) {
+            int b;
+            while ((b = input.read()) != '\n') {
+                if (b == -1) {
+                    if (header.size() == 0) {
+                        return null;
+                    }
+                    throw new EOFException("unexpected end of request header");
+                }
+                if (header.size() >= MAX_HEADER_LENGTH) {
+                    throw new IOException("too long request header");
+                }
+                header.write(b);
+            }
+            String line = header.toString(StandardCharsets.UTF_8);
+            if (!line.trim().isEmpty()) {
+                return line;
+            }
+            // skip blank lines between requests
+            header.reset();
+        }
+    }
+}
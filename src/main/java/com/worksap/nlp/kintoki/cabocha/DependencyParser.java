@@ -21,19 +21,35 @@ import com.worksap.nlp.kintoki.cabocha.svm.FastSVMModel;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class DependencyParser implements Analyzer {
 
+    private ModelRegistry.Handle<SVMModel> model;
     private SVMModel svmModel = null;
-    private DependencyParserData data = null;
+    private final LongAdder classifyCount = new LongAdder();
 
     @Override
     public void open(Param param) throws IOException {
-        String modelFile = param.getString(Param.PARSER_MODEL);
-        svmModel = FastSVMModel.openBinaryModel(modelFile);
+        model = ModelRegistry.getDefault().acquire(Param.PARSER_MODEL, param.getString(Param.PARSER_MODEL),
+                FastSVMModel::openBinaryModel);
+        svmModel = model.get();
+    }
+
+    @Override
+    public List<ModelRegistry.Handle<?>> getModels() {
+        return model == null ? Collections.emptyList() : Collections.singletonList(model);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (model != null) {
+            model.close();
+        }
     }
 
     @Override
@@ -51,16 +67,54 @@ public class DependencyParser implements Analyzer {
         }
 
         // make features
-        build(tree);
+        DependencyParserData data = new DependencyParserData();
+        build(tree, data, 0);
 
-        parseShiftReduce(tree);
+        parseShiftReduce(tree, data, 1);
+        classifyCount.add(data.getClassifyCount());
     }
 
-    private void build(Tree tree) {
-        data = new DependencyParserData();
+    /**
+     * Parse a tree again with the data of its previous parse, of which the
+     * chunks before {@code from} are unchanged. A decision of the shift-reduce
+     * parsing only refers to the chunks up to the one after its destination, so
+     * the parsing resumes from the step before {@code from}.
+     */
+    void parse(Tree tree, DependencyParserData data, int from) {
+        tree.setOutputLayer(OutputLayerType.OUTPUT_DEP);
+        int size = tree.getChunkSize();
+        if (size <= 1) {
+            // nothing is kept for the next parse
+            data.getChunkInfo().clear();
+            if (size == 1) {
+                tree.chunk(0).setLink(-1);
+                tree.chunk(0).setScore(0);
+            }
+            return;
+        }
+
+        from = Math.min(from, data.getChunkInfo().size());
+        build(tree, data, from);
+
+        int classified = data.getClassifyCount();
+        parseShiftReduce(tree, data, Math.max(from - 1, 1));
+        classifyCount.add(data.getClassifyCount() - classified);
+    }
+
+    /**
+     * Get the number of SVM classifications this parser has made, which is the
+     * number of chunk pairs it has scored.
+     */
+    public long getClassifyCount() {
+        return classifyCount.sum();
+    }
+
+    private void build(Tree tree, DependencyParserData data, int from) {
+        List<ChunkInfo> chunkInfos = data.getChunkInfo();
+        chunkInfos.subList(from, chunkInfos.size()).clear();
 
         // collect all features from each chunk.
-        for (int i = 0; i < tree.getChunkSize(); ++i) {
+        for (int i = from; i < tree.getChunkSize(); ++i) {
             Chunk chunk = tree.chunk(i);
             ChunkInfo chunkInfo = new ChunkInfo();
             for (int k = 0; k < chunk.getFeatureListSize(); ++k) {
@@ -85,21 +139,31 @@ public class DependencyParser implements Analyzer {
                     throw new IllegalArgumentException("Unknown feature: " + feature);
                 }
             }
-            data.getChunkInfo().add(chunkInfo);
+            chunkInfos.add(chunkInfo);
         }
     }
 
-    private boolean parseShiftReduce(Tree tree) {
+    private boolean parseShiftReduce(Tree tree, DependencyParserData data, int start) {
         int size = tree.getChunkSize();
 
         Hypothesis hypo = data.getHypothesis();
-        hypo.init(size);
-
         Deque<Integer> agenda = new ArrayDeque<>(size);
         double score = 0.0;
-        agenda.push(0);
+        if (start <= 1) {
+            hypo.init(size);
+            agenda.push(0);
+        } else {
+            // the agenda holds the chunks not linked yet, the last one on top
+            hypo.rollback(start - 1, size);
+            for (int i = 0; i < start; ++i) {
+                if (hypo.getHead().get(i) == -1) {
+                    agenda.push(i);
+                }
+            }
+            score = hypo.getStepScore().get(start - 1);
+        }
 
-        for (int dst = 1; dst < size; ++dst) {
+        for (int dst = start; dst < size; ++dst) {
             int src = myPop(agenda);
 
             // |is_fake_link| is used for partial training, where
@@ -110,7 +174,7 @@ public class DependencyParser implements Analyzer {
             boolean isFakeLink = (dst != size - 1 && tree.chunk(src).getLink() == -1);
 
             // if agenda is empty, src == -1.
-            while (src != -1 && (dst == size - 1 || isFakeLink || (score = estimate(tree, src, dst)) > 0)) {
+            while (src != -1 && (dst == size - 1 || isFakeLink || (score = estimate(tree, data, src, dst)) > 0)) {
                 hypo.getHead().set(src, dst);
                 hypo.getScore().set(src, score);
                 // store children for dynamic_features
@@ -124,6 +188,7 @@ public class DependencyParser implements Analyzer {
                 agenda.push(src);
             }
             agenda.push(dst);
+            hypo.getStepScore().set(dst, score);
         }
 
         for (int src = 0; src < size; ++src) {
@@ -135,43 +200,44 @@ public class DependencyParser implements Analyzer {
         return true;
     }
 
-    private double estimate(Tree tree, int src, int dst) {
+    private double estimate(Tree tree, DependencyParserData data, int src, int dst) {
         Hypothesis hypo = data.getHypothesis();
 
         List<Integer> fp = data.getFp();
 
-        setDistanceFeature(src, dst);
-        setStaticFeature(src);
-        setDst1StaticFeature(dst);
+        setDistanceFeature(data, src, dst);
+        setStaticFeature(data, src);
+        setDst1StaticFeature(data, dst);
         if (src > 0) {
-            setLeftContextFeature(src);
+            setLeftContextFeature(data, src);
         }
         if (dst < tree.getChunkSize() - 1) {
-            setRight1ContextFeature(dst);
+            setRight1ContextFeature(data, dst);
         }
-        setSrcChildFeature(src, hypo);
-        setDst1ChildFeature(dst, hypo);
-        setGapFeature(src, dst);
+        setSrcChildFeature(data, src, hypo);
+        setDst1ChildFeature(data, dst, hypo);
+        setGapFeature(data, src, dst);
 
         fp = fp.stream().sorted().distinct().collect(Collectors.toList());
         double score = svmModel.classify(fp);
+        data.countClassify();
         data.getFp().clear();
         return score;
     }
 
-    private void setDistanceFeature(int src, int dst) {
+    private void setDistanceFeature(DependencyParserData data, int src, int dst) {
         // distance features
         int dist = dst - src;
         if (dist == 1) {
-            addFeature("DIST:1");
+            addFeature(data, "DIST:1");
         } else if (dist >= 2 && dist <= 5) {
-            addFeature("DIST:2-5");
+            addFeature(data, "DIST:2-5");
         } else {
-            addFeature("DIST:6-");
+            addFeature(data, "DIST:6-");
         }
     }
 
-    private void setStaticFeature(int src) {
+    private void setStaticFeature(DependencyParserData data, int src) {
         ChunkInfo chunkInfo = data.chunkInfo(src);
         if (chunkInfo.getStaticFeature().isEmpty()) {
             for (int i = 0; i < chunkInfo.getStrStaticFeature().size(); ++i) {
@@ -180,10 +246,10 @@ public class DependencyParser implements Analyzer {
                 addFeature2(chunkInfo.getStrStaticFeature().get(i), chunkInfo.getStaticFeature());
             }
         }
-        copyFeature(chunkInfo.getStaticFeature());
+        copyFeature(data, chunkInfo.getStaticFeature());
     }
 
-    private void setDst1StaticFeature(int dst) {
+    private void setDst1StaticFeature(DependencyParserData data, int dst) {
         ChunkInfo chunkInfo = data.chunkInfo(dst);
         if (chunkInfo.getDst1StaticFeature().isEmpty()) {
             for (int i = 0; i < chunkInfo.getStrStaticFeature().size(); ++i) {
@@ -192,30 +258,30 @@ public class DependencyParser implements Analyzer {
                 addFeature2(chunkInfo.getStrStaticFeature().get(i), chunkInfo.getDst1StaticFeature());
             }
         }
-        copyFeature(chunkInfo.getDst1StaticFeature());
+        copyFeature(data, chunkInfo.getDst1StaticFeature());
     }
 
-    private void setLeftContextFeature(int src) {
+    private void setLeftContextFeature(DependencyParserData data, int src) {
         ChunkInfo chunkInfo = data.chunkInfo(src - 1);
         if (chunkInfo.getLeftContextFeature().isEmpty()) {
             for (int i = 0; i < chunkInfo.getStrLeftContextFeature().size(); ++i) {
                 addFeature2(chunkInfo.getStrLeftContextFeature().get(i), chunkInfo.getLeftContextFeature());
             }
         }
-        copyFeature(chunkInfo.getLeftContextFeature());
+        copyFeature(data, chunkInfo.getLeftContextFeature());
     }
 
-    private void setRight1ContextFeature(int dst) {
+    private void setRight1ContextFeature(DependencyParserData data, int dst) {
         ChunkInfo chunkInfo = data.chunkInfo(dst + 1);
         if (chunkInfo.getRight1ContextFeature().isEmpty()) {
             for (int i = 0; i < chunkInfo.getStrRightContextFeature().size(); ++i) {
                 addFeature2(chunkInfo.getStrRightContextFeature().get(i), chunkInfo.getRight1ContextFeature());
             }
         }
-        copyFeature(chunkInfo.getRight1ContextFeature());
+        copyFeature(data, chunkInfo.getRight1ContextFeature());
     }
 
-    private void setSrcChildFeature(int src, Hypothesis hypo) {
+    private void setSrcChildFeature(DependencyParserData data, int src, Hypothesis hypo) {
         for (int i = 0; i < hypo.getChildren().get(src).size(); ++i) {
             int child = hypo.getChildren().get(src).get(i);
             ChunkInfo chunkInfo = data.chunkInfo(child);
@@ -226,11 +292,11 @@ public class DependencyParser implements Analyzer {
                     addFeature2(chunkInfo.getStrChildFeature().get(j), chunkInfo.getSrcChildFeature());
                 }
             }
-            copyFeature(chunkInfo.getSrcChildFeature());
+            copyFeature(data, chunkInfo.getSrcChildFeature());
         }
     }
 
-    private void setDst1ChildFeature(int dst, Hypothesis hypo) {
+    private void setDst1ChildFeature(DependencyParserData data, int dst, Hypothesis hypo) {
         for (int i = 0; i < hypo.getChildren().get(dst).size(); ++i) {
             int child = hypo.getChildren().get(dst).get(i);
             ChunkInfo chunkInfo = data.chunkInfo(child);
@@ -241,11 +307,11 @@ public class DependencyParser implements Analyzer {
                     addFeature2(chunkInfo.getStrChildFeature().get(j), chunkInfo.getDst1ChildFeature());
                 }
             }
-            copyFeature(chunkInfo.getDst1ChildFeature());
+            copyFeature(data, chunkInfo.getDst1ChildFeature());
         }
     }
 
-    private void setGapFeature(int src, int dst) {
+    private void setGapFeature(DependencyParserData data, int src, int dst) {
         // gap features
         int bracketStatus = 0;
         for (int k = src + 1; k <= dst - 1; ++k) {
@@ -257,7 +323,7 @@ public class DependencyParser implements Analyzer {
                 } else if (gapFeature.equals("GCB:1")) {
                     bracketStatus |= 2;
                 } else {
-                    addFeature(gapFeature);
+                    addFeature(data, gapFeature);
                 }
             }
         }
@@ -265,16 +331,16 @@ public class DependencyParser implements Analyzer {
         // bracket status
         switch (bracketStatus) {
         case 0:
-            addFeature("GNB:1");
+            addFeature(data, "GNB:1");
             break; // nothing
         case 1:
-            addFeature("GOB:1");
+            addFeature(data, "GOB:1");
             break; // open only
         case 2:
-            addFeature("GCB:1");
+            addFeature(data, "GCB:1");
             break; // close only
         default:
-            addFeature("GBB:1");
+            addFeature(data, "GBB:1");
             break; // both
         }
     }
@@ -287,10 +353,10 @@ public class DependencyParser implements Analyzer {
         }
     }
 
-    private void addFeature(String key) {
+    private void addFeature(DependencyParserData data, String key) {
         int id = this.svmModel.id(key);
         if (id != -1) {
-            this.data.getFp().add(id);
+            data.getFp().add(id);
         }
     }
 
@@ -301,7 +367,7 @@ public class DependencyParser implements Analyzer {
         }
     }
 
-    private void copyFeature(List<Integer> feature) {
-        this.data.getFp().addAll(feature);
+    private void copyFeature(DependencyParserData data, List<Integer> feature) {
+        data.getFp().addAll(feature);
     }
 }
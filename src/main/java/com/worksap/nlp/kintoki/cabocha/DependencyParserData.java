@@ -24,6 +24,7 @@ public class DependencyParserData {
     private List<ChunkInfo> chunkInfo = new ArrayList<>();
     private List<Integer> fp = new ArrayList<>();
     private Hypothesis hypothesis = new Hypothesis();
+    private int classifyCount;
 
     public List<ChunkInfo> getChunkInfo() {
         return chunkInfo;
@@ -41,4 +42,12 @@ public class DependencyParserData {
         return hypothesis;
     }
 
+    public int getClassifyCount() {
+        return classifyCount;
+    }
+
+    void countClassify() {
+        classifyCount++;
+    }
+
 }
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of parse results in a directory, which survives restarts
+ * of the parser.
+ *
+ * <p>
+ * An entry is content-addressed by the SHA-256 digest of the input text, the
+ * input and output layers and a fingerprint of the models the parser has
+ * loaded, so changing a model never returns stale results. The directory holds
+ * two files:
+ *
+ * <pre>
+ * parse-cache.log  MAGIC VERSION, then records:
+ *                  KEY(16) LENGTH(4) CRC32(4) TREE(LENGTH)
+ * parse-cache.idx  MAGIC VERSION CAPACITY 0 COUNT(8) LOG_LENGTH(8), then
+ *                  CAPACITY slots: KEY(16) RECORD_OFFSET(8)
+ * </pre>
+ *
+ * <p>
+ * The log is append-only and is the source of truth. The index is a
+ * memory-mapped open-addressing hash table of the records up to
+ * {@code LOG_LENGTH}; on open, the records appended after it are indexed
+ * again, and a record cut by a crash is truncated. The trees are encoded by
+ * {@link TreeCodec} with inline strings.
+ *
+ * <p>
+ * A directory can be opened by one cache at a time, which is locked until it
+ * is closed. The cache is thread-safe: lookups share a read lock and appends
+ * take a write lock.
+ */
+public class DiskParseCache implements Closeable {
+
+    static final String LOG_NAME = "parse-cache.log";
+    static final String INDEX_NAME = "parse-cache.idx";
+
+    private static final int LOG_MAGIC = 0x4b54434c; // "KTCL"
+    private static final int INDEX_MAGIC = 0x4b544349; // "KTCI"
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int INDEX_HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 24;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_RECORD_SIZE = 1 << 26;
+
+    private final Path dir;
+    private final FileChannel log;
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(DiskParseCache::sha256);
+    private final ThreadLocal<TreeCodec> codecs = ThreadLocal.withInitial(() -> new TreeCodec(null, true));
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private long count;
+    private long logLength;
+    private boolean closed;
+
+    /**
+     * Open a cache, creating the directory if needed.
+     *
+     * @param dir
+     *            the cache directory
+     * @throws IOException
+     *             IOexception will be thrown when the directory cannot be used
+     *             as a cache
+     */
+    public DiskParseCache(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        log = FileChannel.open(dir.resolve(LOG_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // the lock is released when the log is closed
+            if (log.tryLock() == null) {
+                throw new IOException("the parse cache is used by another process: " + dir);
+            }
+            openLog();
+            openIndex();
+        } catch (OverlappingFileLockException e) {
+            log.close();
+            throw new IOException("the parse cache is already open: " + dir, e);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    private void openLog() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        if (log.size() == 0) {
+            header.putInt(LOG_MAGIC).putInt(VERSION).flip();
+            writeFully(log, header, 0);
+        } else {
+            readFully(log, header, 0);
+            if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("not a parse cache of this version: " + dir.resolve(LOG_NAME));
+            }
+        }
+        logLength = log.size();
+    }
+
+    private void openIndex() throws IOException {
+        Path path = dir.resolve(INDEX_NAME);
+        long logSize = logLength;
+        long indexed = -1;
+        if (Files.exists(path)) {
+            indexChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            if (indexChannel.size() >= INDEX_HEADER_SIZE) {
+                readFully(indexChannel, header, 0);
+                int indexCapacity = header.getInt(8);
+                if (header.getInt(0) == INDEX_MAGIC && header.getInt(4) == VERSION
+                        && Integer.bitCount(indexCapacity) == 1 && indexCapacity <= MAX_CAPACITY
+                        && indexChannel.size() == INDEX_HEADER_SIZE + (long) indexCapacity * SLOT_SIZE
+                        && header.getLong(24) >= LOG_HEADER_SIZE && header.getLong(24) <= logSize) {
+                    capacity = indexCapacity;
+                    count = header.getLong(16);
+                    indexed = header.getLong(24);
+                    index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+                }
+            }
+            if (index == null) {
+                indexChannel.close();
+                indexChannel = null;
+            }
+        }
+        if (index == null) {
+            // a missing or broken index is rebuilt from the log
+            indexed = LOG_HEADER_SIZE;
+            count = 0;
+            replaceIndex(INITIAL_CAPACITY);
+        }
+        recover(indexed);
+    }
+
+    /**
+     * Index the records after the given offset of the log, and truncate the
+     * log after the last complete record.
+     */
+    private void recover(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long end = log.size();
+        while (offset + RECORD_HEADER_SIZE <= end) {
+            header.clear();
+            readFully(log, header, offset);
+            int length = header.getInt(16);
+            // an encoded tree is never empty, which also rejects a tail of zeros
+            if (length <= 0 || length > MAX_RECORD_SIZE || offset + RECORD_HEADER_SIZE + length > end) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(log, payload, offset + RECORD_HEADER_SIZE);
+            if (crc(payload.array(), length) != header.getInt(20)) {
+                break;
+            }
+            long hi = header.getLong(0);
+            long lo = header.getLong(8);
+            if (find(hi, lo) < 0) {
+                add(hi, lo, offset);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        if (offset < end) {
+            log.truncate(offset);
+        }
+        logLength = offset;
+        writeIndexHeader();
+    }
+
+    /**
+     * Get a cached tree.
+     *
+     * @param fingerprint
+     *            the fingerprint of the models, see {@link #fingerprint(List)}
+     * @return a new tree, or null if it is not cached
+     */
+    Tree get(byte[] fingerprint, String text, InputLayerType inputLayer, OutputLayerType outputLayer) {
+        byte[] key = key(fingerprint, text, inputLayer, outputLayer);
+        long hi = getLong(key, 0);
+        long lo = getLong(key, 8);
+        long offset;
+        rwLock.readLock().lock();
+        try {
+            checkOpen();
+            int slot = find(hi, lo);
+            offset = slot < 0 ? -1 : index.getLong(slotPosition(slot) + 16);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        Tree tree = offset < 0 ? null : readRecord(offset, hi, lo);
+        if (tree == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return tree;
+    }
+
+    private Tree readRecord(long offset, long hi, long lo) {
+        try {
+            // the log is append-only, so a record never changes once indexed
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            readFully(log, header, offset);
+            int length = header.getInt(16);
+            if (header.getLong(0) != hi || header.getLong(8) != lo || length <= 0 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(log, payload, offset + RECORD_HEADER_SIZE);
+            if (crc(payload.array(), length) != header.getInt(20)) {
+                return null;
+            }
+            payload.flip();
+            return TreeCodec.decode(payload, null, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Store a parsed tree, unless it is already stored or the index is full.
+     *
+     * @param fingerprint
+     *            the fingerprint of the models which parsed the tree
+     */
+    void put(byte[] fingerprint, String text, InputLayerType inputLayer, OutputLayerType outputLayer, Tree tree) {
+        byte[] key = key(fingerprint, text, inputLayer, outputLayer);
+        long hi = getLong(key, 0);
+        long lo = getLong(key, 8);
+        TreeCodec codec = codecs.get();
+        codec.encode(tree);
+        int length = codec.length();
+        if (length > MAX_RECORD_SIZE) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putLong(hi).putLong(lo).putInt(length).putInt(crc(codec.buffer(), length));
+        record.put(codec.buffer(), 0, length).flip();
+
+        rwLock.writeLock().lock();
+        try {
+            checkOpen();
+            if (find(hi, lo) >= 0 || !ensureCapacity()) {
+                return;
+            }
+            long offset = logLength;
+            writeFully(log, record, offset);
+            logLength = offset + record.limit();
+            insert(hi, lo, offset);
+            writeIndexHeader();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("the parse cache is closed: " + dir);
+        }
+    }
+
+    private int find(long hi, long lo) {
+        int mask = capacity - 1;
+        for (int slot = (int) lo & mask;; slot = (slot + 1) & mask) {
+            int position = slotPosition(slot);
+            if (index.getLong(position + 16) == 0) {
+                return -1;
+            }
+            if (index.getLong(position) == hi && index.getLong(position + 8) == lo) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Grow the index if it is half full.
+     *
+     * @return false if the index is full and cannot grow any more
+     */
+    private boolean ensureCapacity() throws IOException {
+        if (count + 1 <= capacity / 2) {
+            return true;
+        }
+        if (capacity == MAX_CAPACITY) {
+            return false;
+        }
+        replaceIndex(capacity * 2);
+        return true;
+    }
+
+    private void add(long hi, long lo, long offset) throws IOException {
+        if (ensureCapacity()) {
+            insert(hi, lo, offset);
+        }
+    }
+
+    private void insert(long hi, long lo, long offset) {
+        int mask = capacity - 1;
+        int slot = (int) lo & mask;
+        while (index.getLong(slotPosition(slot) + 16) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        int position = slotPosition(slot);
+        index.putLong(position, hi);
+        index.putLong(position + 8, lo);
+        // a non-zero offset marks the slot as used, records start after the log header
+        index.putLong(position + 16, offset);
+        count++;
+    }
+
+    private static int slotPosition(int slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Rehash the index into a new file of the given capacity, which replaces
+     * the current one atomically.
+     */
+    private void replaceIndex(int newCapacity) throws IOException {
+        Path path = dir.resolve(INDEX_NAME);
+        Path tmp = dir.resolve(INDEX_NAME + ".tmp");
+        FileChannel newChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer oldIndex = index;
+        int oldCapacity = capacity;
+        try {
+            index = newChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    INDEX_HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+            capacity = newCapacity;
+            count = 0;
+            for (int slot = 0; oldIndex != null && slot < oldCapacity; slot++) {
+                int position = slotPosition(slot);
+                long offset = oldIndex.getLong(position + 16);
+                if (offset != 0) {
+                    insert(oldIndex.getLong(position), oldIndex.getLong(position + 8), offset);
+                }
+            }
+            writeIndexHeader();
+            index.force();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            newChannel.close();
+            index = oldIndex;
+            capacity = oldCapacity;
+            throw e;
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        indexChannel = newChannel;
+    }
+
+    private void writeIndexHeader() {
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, 0);
+        index.putLong(16, count);
+        index.putLong(24, logLength);
+    }
+
+    private byte[] key(byte[] fingerprint, String text, InputLayerType inputLayer, OutputLayerType outputLayer) {
+        MessageDigest digest = digests.get();
+        digest.update(fingerprint);
+        digest.update((byte) inputLayer.getValue());
+        digest.update((byte) outputLayer.getValue());
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compute a fingerprint of models, which is a part of every key. A model
+     * is represented by its key in the {@link ModelRegistry}, which holds the
+     * paths, sizes and modification times of the files it has been read from.
+     *
+     * @param models
+     *            the models of the analyzers of a parser
+     * @return the fingerprint
+     */
+    static byte[] fingerprint(List<ModelRegistry.Handle<?>> models) {
+        MessageDigest digest = sha256();
+        for (ModelRegistry.Handle<?> model : models) {
+            digest.update((model.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of parse cache file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Get the number of stored trees.
+     */
+    public long size() {
+        rwLock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of bytes of the log.
+     */
+    public long getLogSize() {
+        rwLock.readLock().lock();
+        try {
+            return logLength;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flush the index and the log to the disk and release the directory.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in writing the
+     *             files
+     */
+    @Override
+    public void close() throws IOException {
+        rwLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeIndexHeader();
+                index.force();
+                log.force(false);
+            } finally {
+                indexChannel.close();
+                log.close();
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d bytes=%d hits=%d misses=%d hit_rate=%.1f%%", size(), getLogSize(),
+                getHitCount(), getMissCount(), getHitRate() * 100);
+    }
+}
@@ -24,20 +24,55 @@ public class Hypothesis {
     private List<Integer> head;
     private List<Double> score;
     private List<List<Integer>> children;
+    private List<Double> stepScore;
     double hscore;
 
     public void init(int size) {
         head = new ArrayList<>();
         score = new ArrayList<>();
         children = new ArrayList<>();
+        stepScore = new ArrayList<>();
         hscore = 0.0;
         for (int i = 0; i < size; ++i) {
             head.add(-1);
             score.add(0.0);
             children.add(new ArrayList<>());
+            stepScore.add(0.0);
         }
     }
 
+    /**
+     * Restore the hypothesis after the shift-reduce step whose destination is
+     * {@code step}, for a sentence of {@code size} chunks. The links made in
+     * the later steps are removed.
+     */
+    void rollback(int step, int size) {
+        if (head == null || step >= head.size()) {
+            throw new IllegalArgumentException("no step to roll back to: " + step);
+        }
+        for (int i = 0; i < size; ++i) {
+            if (i >= head.size()) {
+                head.add(-1);
+                score.add(0.0);
+                children.add(new ArrayList<>());
+                stepScore.add(0.0);
+                continue;
+            }
+            if (i > step || head.get(i) > step) {
+                head.set(i, -1);
+                score.set(i, 0.0);
+            }
+            if (i > step) {
+                children.get(i).clear();
+                stepScore.set(i, 0.0);
+            }
+        }
+        head.subList(size, head.size()).clear();
+        score.subList(size, score.size()).clear();
+        children.subList(size, children.size()).clear();
+        stepScore.subList(size, stepScore.size()).clear();
+    }
+
     public List<Integer> getHead() {
         return head;
     }
@@ -62,6 +97,14 @@ public class Hypothesis {
         this.children = children;
     }
 
+    /**
+     * Get the score of the last estimation at the end of each step, indexed by
+     * the destination of the step.
+     */
+    List<Double> getStepScore() {
+        return stepScore;
+    }
+
     public double getHscore() {
         return hscore;
     }
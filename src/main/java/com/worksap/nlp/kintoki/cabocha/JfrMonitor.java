@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events for every analyzer stage and every parsed
+ * sentence.
+ *
+ * <p>
+ * The events are {@code kintoki.ParseStage} and {@code kintoki.ParseSentence}.
+ * They are only built while a recording has enabled them, and a parser without
+ * a monitor skips the timing altogether.
+ */
+public class JfrMonitor implements ParserMonitor {
+
+    @Name("kintoki.ParseStage")
+    @Label("Parse Stage")
+    @Category("Kintoki")
+    @Description("An analyzer has processed a sentence")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Chunks")
+        int chunks;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("kintoki.ParseSentence")
+    @Label("Parse Sentence")
+    @Category("Kintoki")
+    @Description("A sentence has been parsed by all analyzers")
+    @StackTrace(false)
+    static class SentenceEvent extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Chunks")
+        int chunks;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Override
+    public void stageFinished(int stage, Analyzer analyzer, Tree tree, long nanos) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = analyzer.getClass().getSimpleName();
+            event.tokens = tree.getTokenSize();
+            event.chunks = tree.getChunkSize();
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void sentenceFinished(Tree tree, long nanos) {
+        SentenceEvent event = new SentenceEvent();
+        if (event.isEnabled()) {
+            event.tokens = tree.getTokenSize();
+            event.chunks = tree.getChunkSize();
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Check whether a flight recording is running, so that events would be
+     * recorded.
+     */
+    static boolean isRecording() {
+        return FlightRecorder.isInitialized() && !FlightRecorder.getFlightRecorder().getRecordings().isEmpty();
+    }
+}
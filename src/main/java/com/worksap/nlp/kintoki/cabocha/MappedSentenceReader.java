@@ -0,0 +1,308 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads sentences from a memory-mapped UTF-8 file.
+ *
+ * <p>
+ * Sentence boundaries are found on the raw bytes: a newline for
+ * {@link Constant#CABOCHA_INPUT_RAW_SENTENCE}, and an {@code EOS} or blank line
+ * for the other input layers. Only the bytes of a returned sentence are
+ * decoded. Files larger than 2GB are mapped in several segments.
+ */
+public class MappedSentenceReader implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private static final byte[] EOS = "EOS".getBytes(StandardCharsets.UTF_8);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final boolean rawSentence;
+
+    private MappedSentenceReader(FileChannel channel, int inputLayer) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.rawSentence = inputLayer == Constant.CABOCHA_INPUT_RAW_SENTENCE;
+        int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, size - offset));
+        }
+    }
+
+    /**
+     * Map a file for reading.
+     *
+     * @param path
+     *            the file to be read
+     * @param inputLayer
+     *            the input layer, which decides the sentence boundaries
+     * @return a reader of the file
+     * @throws IOException
+     *             IOexception will be thrown when the file cannot be mapped
+     */
+    public static MappedSentenceReader open(Path path, int inputLayer) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedSentenceReader(channel, inputLayer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Split the file into ranges that start at sentence boundaries.
+     *
+     * @param n
+     *            the number of ranges
+     * @return {@code n + 1} ascending offsets, the first is 0 and the last is the
+     *         file size. Range {@code i} is {@code [points[i], points[i + 1])}
+     *         and may be empty.
+     */
+    public long[] splitPoints(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("the number of ranges must be positive: " + n);
+        }
+        long[] points = new long[n + 1];
+        points[n] = size;
+        for (int i = 1; i < n; i++) {
+            long target = Math.max(points[i - 1], size / n * i);
+            points[i] = sentenceStartFrom(target);
+        }
+        return points;
+    }
+
+    /**
+     * Create a cursor over the sentences which start in the range
+     * {@code [start, end)}. The last sentence may extend beyond {@code end}.
+     *
+     * @param start
+     *            a sentence boundary, usually one of {@link #splitPoints(int)}
+     * @param end
+     *            the end of the range
+     * @return a new cursor
+     */
+    public Cursor cursor(long start, long end) {
+        return new Cursor(start, Math.min(end, size));
+    }
+
+    public Cursor cursor() {
+        return cursor(0, size);
+    }
+
+    private long sentenceStartFrom(long target) {
+        if (target <= 0) {
+            return 0;
+        }
+        long pos = nextLine(target - 1);
+        if (rawSentence) {
+            return pos;
+        }
+        while (pos < size) {
+            long lineEnd = lineEnd(pos);
+            long next = lineEnd < size ? lineEnd + 1 : size;
+            if (isBoundary(pos, lineEnd)) {
+                return next;
+            }
+            pos = next;
+        }
+        return size;
+    }
+
+    private long nextLine(long pos) {
+        long end = lineEnd(pos);
+        return end < size ? end + 1 : size;
+    }
+
+    private long lineEnd(long pos) {
+        while (pos < size && get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean isBoundary(long begin, long end) {
+        while (begin < end && Byte.toUnsignedInt(get(begin)) <= ' ') {
+            begin++;
+        }
+        while (end > begin && Byte.toUnsignedInt(get(end - 1)) <= ' ') {
+            end--;
+        }
+        if (begin == end) {
+            return true;
+        }
+        if (end - begin != EOS.length) {
+            return false;
+        }
+        for (int i = 0; i < EOS.length; i++) {
+            if (get(begin + i) != EOS[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A sequential reader over a range of the file. A cursor is not thread-safe,
+     * but several cursors of the same reader can be used concurrently.
+     */
+    public class Cursor {
+
+        private final long end;
+        private long position;
+        private byte[] buffer = new byte[256];
+        private int length;
+
+        private Cursor(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Get the offset of the next unread byte.
+         *
+         * @return the offset in the file
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * Read the next sentence.
+         *
+         * @return the sentence in the same form as the CLI reads it, or null if no
+         *         more sentences start in the range of this cursor
+         */
+        public String next() {
+            return rawSentence ? nextLine() : nextBlock();
+        }
+
+        private String nextLine() {
+            if (position >= end) {
+                return null;
+            }
+            long lineEnd = lineEnd(position);
+            long contentEnd = lineEnd;
+            if (contentEnd > position && get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            length = 0;
+            append(position, contentEnd);
+            position = lineEnd < size ? lineEnd + 1 : size;
+            return decode();
+        }
+
+        private String nextBlock() {
+            while (position < size) {
+                long lineEnd = lineEnd(position);
+                if (!isBoundary(position, lineEnd)) {
+                    break;
+                }
+                position = lineEnd < size ? lineEnd + 1 : size;
+            }
+            if (position >= end) {
+                return null;
+            }
+
+            length = 0;
+            int lineNum = 0;
+            while (position < size) {
+                long lineEnd = lineEnd(position);
+                long next = lineEnd < size ? lineEnd + 1 : size;
+                if (isBoundary(position, lineEnd)) {
+                    position = next;
+                    break;
+                }
+                appendTrimmed(position, lineEnd);
+                append('\n');
+                if (++lineNum > Constant.CABOCHA_MAX_LINE_SIZE) {
+                    throw new IllegalArgumentException(
+                            "too long line #line must be <= " + Constant.CABOCHA_MAX_LINE_SIZE);
+                }
+                position = next;
+            }
+            return decode();
+        }
+
+        private void appendTrimmed(long begin, long end) {
+            while (begin < end && Byte.toUnsignedInt(get(begin)) <= ' ') {
+                begin++;
+            }
+            while (end > begin && Byte.toUnsignedInt(get(end - 1)) <= ' ') {
+                end--;
+            }
+            append(begin, end);
+        }
+
+        private void append(long begin, long end) {
+            int n = (int) (end - begin);
+            ensureCapacity(length + n);
+            for (long pos = begin; pos < end;) {
+                MappedByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)];
+                int offset = (int) (pos & SEGMENT_MASK);
+                int chunk = (int) Math.min(end - pos, SEGMENT_SIZE - offset);
+                segment.duplicate().position(offset).get(buffer, length, chunk);
+                length += chunk;
+                pos += chunk;
+            }
+        }
+
+        private void append(char c) {
+            ensureCapacity(length + 1);
+            buffer[length++] = (byte) c;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+        }
+
+        private String decode() {
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * A reference-counted registry of loaded models, so that parsers opened with
+ * the same model files share one instance of each model.
+ *
+ * <p>
+ * A model is keyed by its kind, the canonical path of its file and a
+ * fingerprint of the files it is read from, so a replaced file is loaded again
+ * while the parsers opened before keep the old model. A model read from several
+ * files, such as a Sudachi dictionary, is given a {@link Resolver} which lists
+ * them, so that other files in the same directory do not matter. A model is
+ * loaded by the first {@link #acquire} and released when the last handle to it
+ * is closed; a model which is {@link AutoCloseable}, such as a Sudachi
+ * dictionary, is closed then.
+ */
+public class ModelRegistry {
+
+    private static final ModelRegistry DEFAULT = new ModelRegistry();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * Loads a model from a file.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load(String path) throws IOException;
+    }
+
+    /**
+     * Lists the files a model is read from. A part of the model read from the
+     * class path is not listed.
+     */
+    @FunctionalInterface
+    public interface Resolver {
+        List<Path> resolve(String path) throws IOException;
+    }
+
+    /**
+     * A reference to a model, which must be closed when the model is no longer
+     * used.
+     */
+    public static class Handle<T> implements Closeable {
+        private final ModelRegistry registry;
+        private final Entry entry;
+        private final T model;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Handle(ModelRegistry registry, Entry entry, T model) {
+            this.registry = registry;
+            this.entry = entry;
+            this.model = model;
+        }
+
+        public T get() {
+            if (closed.get()) {
+                throw new IllegalStateException("the model handle is closed");
+            }
+            return model;
+        }
+
+        /**
+         * Get the files the model has been read from.
+         */
+        public List<Path> getFiles() {
+            return entry.files;
+        }
+
+        /**
+         * Get the key of the model, which changes when its files change.
+         */
+        public String getKey() {
+            return entry.key;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                registry.release(entry);
+            }
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final List<Path> files;
+        int references;
+        Object model;
+
+        Entry(String key, List<Path> files) {
+            this.key = key;
+            this.files = files;
+        }
+    }
+
+    /**
+     * Get the registry shared by the whole process, which analyzers use.
+     */
+    public static ModelRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get a model read from one file, loading it unless it is already loaded.
+     *
+     * @param kind
+     *            the kind of the model, which distinguishes models read from
+     *            the same file by different loaders
+     * @param path
+     *            the path of the model file
+     * @param loader
+     *            the loader, which is given the canonical path
+     * @return a handle to the model
+     * @throws IOException
+     *             IOexception will be thrown when the model cannot be loaded
+     */
+    public <T> Handle<T> acquire(String kind, String path, Loader<T> loader) throws IOException {
+        return acquire(kind, path, file -> Collections.singletonList(Paths.get(file).toRealPath()), loader);
+    }
+
+    /**
+     * Get a model, loading it unless it is already loaded.
+     *
+     * @param kind
+     *            the kind of the model, which distinguishes models read from
+     *            the same file by different loaders
+     * @param path
+     *            the path of the model file or directory, which need not exist
+     *            if the loader finds the model elsewhere
+     * @param resolver
+     *            the resolver of the files the model is read from
+     * @param loader
+     *            the loader, which is given the canonical path, or the path
+     *            itself if it does not exist
+     * @return a handle to the model
+     * @throws IOException
+     *             IOexception will be thrown when the model cannot be loaded
+     */
+    public <T> Handle<T> acquire(String kind, String path, Resolver resolver, Loader<T> loader)
+            throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("no " + kind + " path is given");
+        }
+        Path given = Paths.get(path);
+        String canonical = Files.exists(given) ? given.toRealPath().toString() : path;
+        List<Path> files = Collections.unmodifiableList(new ArrayList<>(resolver.resolve(canonical)));
+        String key = kind + "\t" + canonical + "\t" + fingerprint(files);
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(key, k -> new Entry(k, files));
+            entry.references++;
+        }
+        try {
+            T model;
+            // other models are loaded concurrently, the same model only once
+            synchronized (entry) {
+                if (entry.model == null) {
+                    entry.model = loader.load(canonical);
+                    loads.increment();
+                }
+                @SuppressWarnings("unchecked")
+                T loaded = (T) entry.model;
+                model = loaded;
+            }
+            return new Handle<>(this, entry, model);
+        } catch (IOException | RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    private void release(Entry entry) throws IOException {
+        synchronized (entries) {
+            if (--entry.references > 0) {
+                return;
+            }
+            entries.remove(entry.key);
+        }
+        Object model;
+        synchronized (entry) {
+            model = entry.model;
+            entry.model = null;
+        }
+        if (model instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) model).close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("failed to close the model " + entry.key, e);
+            }
+        }
+    }
+
+    /**
+     * Get the number of models held.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the number of times a model has been loaded.
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Compute a fingerprint of model files from their paths, sizes and
+     * modification times.
+     *
+     * @param files
+     *            the files
+     * @return the fingerprint
+     * @throws IOException
+     *             IOexception will be thrown when a file cannot be read
+     */
+    static String fingerprint(List<Path> files) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            sb.append(file).append(':').append(Files.size(file)).append(':')
+                    .append(Files.getLastModifiedTime(file).toMillis()).append('/');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (entries) {
+            return entries.keySet().stream().map(key -> key.substring(0, key.lastIndexOf('\t')))
+                    .collect(Collectors.joining(", ", "[", "]"));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches model files and runs an action once they have stopped changing.
+ *
+ * <p>
+ * A file is watched through its directory, so a file replaced by a rename is
+ * noticed as well as one rewritten in place; other files in the directory are
+ * ignored. Since a large file is written in many steps, the action runs only
+ * after no watched file has changed for a quiet period, however often the
+ * other files change.
+ */
+class ModelWatcher implements Closeable {
+
+    static final long DEFAULT_QUIET_MILLIS = 2000;
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Set<Path>> fileNames = new HashMap<>();
+    private final Runnable action;
+    private final long quietMillis;
+    private final Thread thread;
+
+    ModelWatcher(List<Path> paths, Runnable action, long quietMillis) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.action = action;
+        this.quietMillis = quietMillis;
+        try {
+            for (Path path : paths) {
+                Path absolute = path.toAbsolutePath().normalize();
+                Path directory = absolute.getParent();
+                if (!fileNames.containsKey(directory)) {
+                    directories.put(directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                    fileNames.put(directory, new HashSet<>());
+                }
+                fileNames.get(directory).add(absolute.getFileName());
+            }
+        } catch (IOException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+        thread = ParallelRunner.daemonThreadFactory("kintoki-watcher").newThread(this::watchLoop);
+        thread.start();
+    }
+
+    private void watchLoop() {
+        try {
+            boolean pending = false;
+            // the time of the last change of a watched file
+            long lastChange = 0;
+            while (true) {
+                WatchKey key;
+                if (pending) {
+                    long wait = lastChange + TimeUnit.MILLISECONDS.toNanos(quietMillis) - System.nanoTime();
+                    if (wait <= 0) {
+                        // quiet for long enough
+                        pending = false;
+                        action.run();
+                        continue;
+                    }
+                    key = service.poll(wait, TimeUnit.NANOSECONDS);
+                    if (key == null) {
+                        continue;
+                    }
+                } else {
+                    key = service.take();
+                }
+                Path directory = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // other files in the directory do not postpone the action
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || fileNames.get(directory).contains(event.context())) {
+                        pending = true;
+                        lastChange = System.nanoTime();
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher is closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+        thread.interrupt();
+    }
+}
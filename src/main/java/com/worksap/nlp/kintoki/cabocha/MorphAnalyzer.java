@@ -16,24 +16,50 @@
 
 package com.worksap.nlp.kintoki.cabocha;
 
+import com.worksap.nlp.sudachi.Dictionary;
 import com.worksap.nlp.sudachi.Morpheme;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 public class MorphAnalyzer implements Analyzer {
 
-    private SudachiTokenizer tokenizer;
+    private ModelRegistry.Handle<Dictionary> dictionary;
+    private SessionPool<SudachiTokenizer> tokenizers;
 
     @Override
     public void open(Param param) throws IOException {
-        this.tokenizer = SudachiTokenizer.getInstance(param.getString(Param.SUDACHI_DICT));
+        dictionary = ModelRegistry.getDefault().acquire(Param.SUDACHI_DICT, param.getString(Param.SUDACHI_DICT),
+                SudachiTokenizer::dictionaryFiles, SudachiTokenizer::loadDictionary);
+        Dictionary loaded = dictionary.get();
+        tokenizers = new SessionPool<>(() -> new SudachiTokenizer(loaded));
     }
 
     @Override
     public void parse(Tree tree) {
-        List<Morpheme> morphemes = tokenizer.parse(tree.getSentence());
-        tree.read(morphemes);
+        tree.read(tokenize(tree.getSentence()));
         tree.setOutputLayer(OutputLayerType.OUTPUT_POS);
     }
+
+    List<Morpheme> tokenize(String text) {
+        SudachiTokenizer tokenizer = tokenizers.acquire();
+        try {
+            return tokenizer.parse(text);
+        } finally {
+            tokenizers.release(tokenizer);
+        }
+    }
+
+    @Override
+    public List<ModelRegistry.Handle<?>> getModels() {
+        return dictionary == null ? Collections.emptyList() : Collections.singletonList(dictionary);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dictionary != null) {
+            dictionary.close();
+        }
+    }
 }
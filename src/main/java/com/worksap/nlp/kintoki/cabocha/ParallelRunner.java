@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a fixed number of worker threads and hands their results to an
+ * output in submission order.
+ *
+ * <p>
+ * At most {@code maxPending} results are kept in memory. When the limit is
+ * reached, {@link #submit(Callable)} blocks the caller until the oldest result
+ * has been written.
+ */
+class ParallelRunner<T> implements Closeable {
+
+    interface Output<T> {
+        void write(T value) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final Output<T> output;
+    private final int maxPending;
+    private final Deque<Future<T>> pending = new ArrayDeque<>();
+
+    ParallelRunner(int threads, int maxPending, Output<T> output) {
+        this.executor = Executors.newFixedThreadPool(threads, daemonThreadFactory("kintoki-worker"));
+        this.output = output;
+        this.maxPending = maxPending;
+    }
+
+    void submit(Callable<T> task) throws IOException {
+        while (pending.size() >= maxPending) {
+            writeHead();
+        }
+        pending.addLast(executor.submit(task));
+        drainDone();
+    }
+
+    void emit(T value) throws IOException {
+        if (pending.isEmpty()) {
+            output.write(value);
+        } else {
+            pending.addLast(CompletableFuture.completedFuture(value));
+        }
+    }
+
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeHead();
+        }
+    }
+
+    private void drainDone() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        Future<T> head = pending.pollFirst();
+        try {
+            output.write(head.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        pending.forEach(f -> f.cancel(true));
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -41,6 +41,18 @@ public class Param {
     public static final String OUTPUT_FORMAT = "output-format";
     public static final String RC_FILE = "rcfile";
     public static final String OUTPUT = "output";
+    public static final String THREADS = "threads";
+    public static final String OUTPUT_DIR = "output-dir";
+    public static final String SERVER = "server";
+    public static final String COPROCESS = "coprocess";
+    public static final String STATS = "stats";
+    public static final String DOCUMENT = "document";
+    public static final String PIPELINE = "pipeline";
+    public static final String CACHE = "cache";
+    public static final String DISK_CACHE = "disk-cache";
+    public static final String WATCH = "watch";
+    public static final String SHARD = "shard";
+    public static final String MERGE = "merge";
 
     static final Pattern LONG_OPTION_PATTERN = Pattern.compile("--(\\S+?)(?:=(\\S+))?");
     static final Pattern SHORT_OPTION_PATTERN = Pattern.compile("-([\\S&&[^-]])(\\S+)?");
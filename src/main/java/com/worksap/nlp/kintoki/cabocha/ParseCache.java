@@ -0,0 +1,326 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A memory-bounded cache of parse results, keyed by the input text, the input
+ * and output layers and the generation of the models which parsed it. A
+ * generation is unique in the process, so parsers with different models can
+ * share a cache, and the results of models replaced by a reload are never
+ * returned and are evicted in time.
+ *
+ * <p>
+ * The cache is split into stripes by the hash of the key, each with its own
+ * lock, so threads rarely contend. A stripe is a segmented LRU: a new entry
+ * enters the probation segment and moves to the protected segment on its
+ * second hit, so a burst of sentences seen once cannot flush the sentences
+ * which repeat. The size of an entry is an estimate of the bytes its tree
+ * retains.
+ *
+ * <p>
+ * The cache holds private copies of the trees and returns a new copy on every
+ * hit, so callers may modify the trees they get.
+ */
+public class ParseCache {
+
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final long TOKEN_OVERHEAD = 160;
+    private static final long CHUNK_OVERHEAD = 96;
+    private static final long STRING_OVERHEAD = 40;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static class Key {
+        final String text;
+        final InputLayerType inputLayer;
+        final OutputLayerType outputLayer;
+        final int generation;
+        final int hash;
+
+        Key(String text, InputLayerType inputLayer, OutputLayerType outputLayer, int generation) {
+            this.text = text;
+            this.inputLayer = inputLayer;
+            this.outputLayer = outputLayer;
+            this.generation = generation;
+            this.hash = Objects.hash(text, inputLayer, outputLayer, generation);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && inputLayer == other.inputLayer && outputLayer == other.outputLayer
+                    && generation == other.generation && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        final Tree tree;
+        final long weight;
+
+        Entry(Tree tree, long weight) {
+            this.tree = tree;
+            this.weight = weight;
+        }
+    }
+
+    private class Stripe {
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxWeight;
+        private final long maxProtectedWeight;
+        private long probationWeight;
+        private long protectedWeight;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = (long) (maxWeight * PROTECTED_RATIO);
+        }
+
+        synchronized Tree get(Key key) {
+            Entry entry = protectedEntries.get(key);
+            if (entry != null) {
+                return entry.tree;
+            }
+            entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            probationWeight -= entry.weight;
+            protectedEntries.put(key, entry);
+            protectedWeight += entry.weight;
+            // demote the least recently used protected entries
+            Iterator<Map.Entry<Key, Entry>> it = protectedEntries.entrySet().iterator();
+            while (protectedWeight > maxProtectedWeight && it.hasNext()) {
+                Map.Entry<Key, Entry> eldest = it.next();
+                it.remove();
+                protectedWeight -= eldest.getValue().weight;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationWeight += eldest.getValue().weight;
+            }
+            return entry.tree;
+        }
+
+        synchronized void put(Key key, Entry entry) {
+            if (entry.weight > maxWeight || probation.containsKey(key) || protectedEntries.containsKey(key)) {
+                return;
+            }
+            probation.put(key, entry);
+            probationWeight += entry.weight;
+            while (probationWeight + protectedWeight > maxWeight) {
+                LinkedHashMap<Key, Entry> victims = probation.isEmpty() ? protectedEntries : probation;
+                Iterator<Entry> it = victims.values().iterator();
+                long weight = it.next().weight;
+                it.remove();
+                if (victims == probation) {
+                    probationWeight -= weight;
+                } else {
+                    protectedWeight -= weight;
+                }
+                evictions.increment();
+            }
+        }
+
+        synchronized long size() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        synchronized long weight() {
+            return probationWeight + protectedWeight;
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protectedEntries.clear();
+            probationWeight = 0;
+            protectedWeight = 0;
+        }
+    }
+
+    /**
+     * Create a new cache with a stripe for every 4 available processors, at
+     * least 16.
+     *
+     * @param maxBytes
+     *            the approximate maximum number of bytes the cached trees
+     *            retain
+     */
+    public ParseCache(long maxBytes) {
+        this(maxBytes, Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxBytes
+     *            the approximate maximum number of bytes the cached trees
+     *            retain
+     * @param concurrency
+     *            the number of stripes, rounded up to a power of two
+     */
+    public ParseCache(long maxBytes, int concurrency) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("the cache size must be positive: " + maxBytes);
+        }
+        if (concurrency < 1 || concurrency > 1 << 16) {
+            throw new IllegalArgumentException("invalid concurrency: " + concurrency);
+        }
+        int size = Integer.highestOneBit(concurrency);
+        if (size < concurrency) {
+            size <<= 1;
+        }
+        this.maxBytes = maxBytes;
+        this.mask = size - 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxBytes / size));
+        }
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hash;
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Get a copy of a cached tree.
+     *
+     * @param generation
+     *            the id of the generation of the models of the parser, which
+     *            is unique in the process
+     * @return a new copy of the tree, or null if it is not cached
+     */
+    Tree get(String text, InputLayerType inputLayer, OutputLayerType outputLayer, int generation) {
+        Key key = new Key(text, inputLayer, outputLayer, generation);
+        Tree tree = stripe(key).get(key);
+        if (tree == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return tree.copy();
+    }
+
+    /**
+     * Cache a copy of a parsed tree.
+     */
+    void put(String text, InputLayerType inputLayer, OutputLayerType outputLayer, int generation, Tree tree) {
+        Key key = new Key(text, inputLayer, outputLayer, generation);
+        stripe(key).put(key, new Entry(tree.copy(), weigh(text, tree)));
+    }
+
+    /**
+     * Estimate the number of bytes which a cached tree and its key retain.
+     */
+    static long weigh(String text, Tree tree) {
+        long bytes = ENTRY_OVERHEAD + stringBytes(text) + stringBytes(tree.getSentence());
+        for (Token token : tree.getTokens()) {
+            bytes += TOKEN_OVERHEAD + stringBytes(token.getSurface()) + stringBytes(token.getNormalizedSurface())
+                    + stringBytes(token.getFeature()) + stringBytes(token.getReading())
+                    + stringBytes(token.getAdditionalInfo());
+            // the feature list and pos usually share the characters of the feature
+            bytes += token.getFeatureListSize() * STRING_OVERHEAD;
+        }
+        for (Chunk chunk : tree.getChunks()) {
+            bytes += CHUNK_OVERHEAD + 8L * chunk.getTokenSize();
+            for (String feature : chunk.getFeatureList()) {
+                bytes += stringBytes(feature);
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : STRING_OVERHEAD + 2L * s.length();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Get the number of cached trees.
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the estimated number of bytes the cached trees retain.
+     */
+    public long weight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            weight += stripe.weight();
+        }
+        return weight;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d bytes=%d/%d hits=%d misses=%d hit_rate=%.1f%% evictions=%d", size(),
+                weight(), maxBytes, getHitCount(), getMissCount(), getHitRate() * 100, getEvictionCount());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Flow.Processor} which parses the sentences it receives and publishes
+ * the trees in the same order.
+ *
+ * <p>
+ * Sentences are parsed with {@link Parser#parseAsync(String)}, so the executor
+ * and the concurrency limit of the parser apply. The processor requests
+ * sentences from upstream only as far as the subscriber has requested trees,
+ * and never holds more than {@code maxInFlight} sentences which are requested
+ * but not yet delivered. A processor has a single subscriber.
+ */
+public class ParseProcessor implements Flow.Processor<String, Tree> {
+
+    private final Parser parser;
+    private final int maxInFlight;
+
+    private final AtomicReference<Flow.Subscriber<? super Tree>> downstream = new AtomicReference<>();
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+    private final Queue<CompletableFuture<Tree>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+
+    // accessed only in drain()
+    private long emitted;
+    private long requestedUpstream;
+    private boolean terminated;
+
+    /**
+     * Create a new processor.
+     *
+     * @param parser
+     *            the parser which parses the sentences
+     * @param maxInFlight
+     *            the maximum number of sentences which are requested from
+     *            upstream but not yet delivered downstream
+     */
+    public ParseProcessor(Parser parser, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.parser = parser;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Tree> subscriber) {
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("a parse processor allows only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                    cancelUpstream();
+                    upstreamDone = true;
+                } else {
+                    requested.getAndAccumulate(n, (r, m) -> r + m < 0 ? Long.MAX_VALUE : r + m);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(String sentence) {
+        if (cancelled) {
+            return;
+        }
+        CompletableFuture<Tree> future = parser.parseAsync(sentence);
+        queue.add(future);
+        future.whenComplete((tree, e) -> drain());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = upstream.get();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Deliver the finished trees at the head of the queue and request more
+     * sentences. Signals may arrive on any thread, so only one thread runs the
+     * loop at a time and repeats it for the signals which arrived meanwhile.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super Tree> subscriber = downstream.get();
+            if (cancelled) {
+                queue.clear();
+            } else if (subscriber != null && !terminated) {
+                emit(subscriber);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(Flow.Subscriber<? super Tree> subscriber) {
+        long demand = requested.get();
+        while (emitted < demand) {
+            CompletableFuture<Tree> head = queue.peek();
+            if (head == null || !head.isDone()) {
+                break;
+            }
+            queue.poll();
+            Tree tree;
+            try {
+                tree = head.join();
+            } catch (CompletionException e) {
+                terminated = true;
+                cancelUpstream();
+                queue.clear();
+                subscriber.onError(e.getCause());
+                return;
+            }
+            emitted++;
+            subscriber.onNext(tree);
+        }
+
+        if (upstreamDone && (queue.isEmpty() || error != null)) {
+            terminated = true;
+            queue.clear();
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+            return;
+        }
+
+        Flow.Subscription subscription = upstream.get();
+        if (subscription != null && !upstreamDone) {
+            long window = Math.min(maxInFlight, demand - emitted);
+            long missing = window - (requestedUpstream - emitted);
+            if (missing > 0) {
+                requestedUpstream += missing;
+                subscription.request(missing);
+            }
+        }
+    }
+}
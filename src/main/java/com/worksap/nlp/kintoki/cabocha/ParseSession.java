@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import com.worksap.nlp.kintoki.cabocha.crf.Tagger;
+import com.worksap.nlp.sudachi.Morpheme;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a text which grows at its end, such as the output of a speech
+ * recognizer or a line being typed, keeping the state of the last parse so
+ * that an append only parses the end of the text again.
+ *
+ * <p>
+ * An append rolls back to a boundary which the appended text hardly moves. The
+ * tokens from the last chunk, and at least the last {@value #TOKEN_ROLLBACK}
+ * tokens, are tokenized again. The CRF lattice of the chunker is computed again
+ * from the first changed token minus the window of its feature templates, only
+ * the changed chunks get their features selected, and the shift-reduce parsing
+ * of the dependencies resumes from the step before the first changed chunk. The
+ * result is the same as {@link Parser#parse(String)} of the whole text, unless
+ * the dictionary has a word across the boundary of the tokenization.
+ *
+ * <p>
+ * In the POS input layer, a line is read once its newline has been appended,
+ * so a piece may end anywhere in a line. The tree holds the complete lines
+ * only, and the rest stays pending until a later append completes it.
+ *
+ * <p>
+ * A session is not thread-safe. It keeps the models it has parsed with, and
+ * parses the whole text again with the new models on the first append after
+ * {@link Parser#reload()}.
+ */
+public class ParseSession implements Closeable {
+
+    static final int TOKEN_ROLLBACK = 3;
+
+    private final Parser parser;
+    private final StringBuilder text = new StringBuilder();
+    /** the offset in the text where each token begins */
+    private final List<Integer> tokenBegins = new ArrayList<>();
+    /** the offset in the text after the last complete line read in the POS input layer */
+    private int lineEnd;
+    private Parser.Generation generation;
+    private MorphAnalyzer morphAnalyzer;
+    private Chunker chunker;
+    private Selector selector;
+    private DependencyParser dependencyParser;
+    private Tagger tagger;
+    private DependencyParserData data;
+    private Tree tree;
+
+    ParseSession(Parser parser) {
+        this.parser = parser;
+        open(parser.retain());
+    }
+
+    private void open(Parser.Generation next) {
+        generation = next;
+        morphAnalyzer = null;
+        chunker = null;
+        selector = null;
+        dependencyParser = null;
+        for (Analyzer analyzer : next.analyzers) {
+            if (analyzer instanceof MorphAnalyzer) {
+                morphAnalyzer = (MorphAnalyzer) analyzer;
+            } else if (analyzer instanceof Chunker) {
+                chunker = (Chunker) analyzer;
+            } else if (analyzer instanceof Selector) {
+                selector = (Selector) analyzer;
+            } else if (analyzer instanceof DependencyParser) {
+                dependencyParser = (DependencyParser) analyzer;
+            }
+        }
+        tagger = chunker == null ? null : chunker.createTagger();
+        reset();
+    }
+
+    private void reset() {
+        tree = new Tree();
+        tree.setOutputLayer(parser.getOutputLayer());
+        tokenBegins.clear();
+        lineEnd = 0;
+        if (tagger != null) {
+            tagger.clear();
+        }
+        data = new DependencyParserData();
+    }
+
+    /**
+     * Append a text to the end of the text of this session and parse it.
+     *
+     * @param more
+     *            the text to be appended, in the input layer of the parser
+     * @return the tree of the whole text, which belongs to this session and is
+     *         updated by the next append. Use {@link Tree#copy()} to keep it.
+     */
+    public Tree append(String more) {
+        if (generation == null) {
+            throw new IllegalStateException("the session is closed");
+        }
+        Parser.Generation current = parser.retain();
+        if (current == generation) {
+            Parser.release(current);
+        } else {
+            // reloaded models parse the whole text again
+            Parser.release(generation);
+            open(current);
+        }
+
+        int length = text.length();
+        text.append(more);
+        int rollback = rollback();
+        List<Token> tokens = new ArrayList<>();
+        List<Integer> begins = new ArrayList<>();
+        int end;
+        try {
+            end = readTokens(rollback, tokens, begins);
+        } catch (RuntimeException e) {
+            text.setLength(length);
+            throw e;
+        }
+        try {
+            update(rollback, tokens, begins);
+            lineEnd = end;
+        } catch (RuntimeException e) {
+            text.setLength(length);
+            // the next append parses the whole text again
+            reset();
+            throw e;
+        }
+        return tree;
+    }
+
+    /**
+     * Get the index of the first token which is read again.
+     */
+    private int rollback() {
+        int size = tree.getTokenSize();
+        if (morphAnalyzer == null) {
+            // only complete lines have been read
+            return size;
+        }
+        int rollback = Math.max(size - TOKEN_ROLLBACK, 0);
+        if (tree.getChunkSize() > 0) {
+            rollback = Math.min(rollback, tree.chunk(tree.getChunkSize() - 1).getTokenPos());
+        }
+        return rollback;
+    }
+
+    /**
+     * Read the tokens from a token to the end of the text.
+     *
+     * @return the offset in the text after the last line read
+     */
+    private int readTokens(int rollback, List<Token> tokens, List<Integer> begins) {
+        if (morphAnalyzer != null) {
+            int begin = rollback < tree.getTokenSize() ? tokenBegins.get(rollback) : 0;
+            List<Morpheme> morphemes = morphAnalyzer.tokenize(text.substring(begin));
+            Tree t = new Tree();
+            t.read(morphemes);
+            tokens.addAll(t.getTokens());
+            for (Morpheme m : morphemes) {
+                begins.add(begin + m.begin());
+            }
+            return text.length();
+        }
+
+        // the last line is read when its newline comes
+        int begin = lineEnd;
+        int end = text.lastIndexOf("\n") + 1;
+        if (end <= begin) {
+            return begin;
+        }
+        String input = text.substring(begin, end);
+        if (input.trim().isEmpty()) {
+            return begin;
+        }
+        try {
+            int offset = begin;
+            for (String line : input.split("\n")) {
+                if (line.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Invalid format");
+                }
+                if (!line.startsWith("* ")) {
+                    tokens.add(Tree.readToken(line));
+                    begins.add(offset);
+                }
+                offset += line.length() + 1;
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Format error: [" + input + "] ", e);
+        }
+        return end;
+    }
+
+    private void update(int rollback, List<Token> tokens, List<Integer> begins) {
+        // the unchanged tokens keep their objects, which the chunks refer to
+        List<Token> current = tree.getTokens();
+        int size = current.size();
+        int from = rollback;
+        int i = 0;
+        while (from < size && i < tokens.size() && current.get(from).equals(tokens.get(i))) {
+            from++;
+            i++;
+        }
+        current.subList(from, size).clear();
+        tokenBegins.subList(from, size).clear();
+        current.addAll(tokens.subList(i, tokens.size()));
+        tokenBegins.addAll(begins.subList(i, begins.size()));
+        if (morphAnalyzer != null) {
+            tree.setSentence(text.toString());
+        }
+        if (from == size && from == current.size()) {
+            return;
+        }
+
+        tree.setOutputLayer(parser.getOutputLayer());
+        if (morphAnalyzer != null) {
+            tree.setOutputLayer(OutputLayerType.OUTPUT_POS);
+        }
+        if (chunker == null) {
+            return;
+        }
+        int chunks = chunker.parse(tree, tagger, from);
+        if (selector != null) {
+            selector.parse(tree, chunks);
+        }
+        if (dependencyParser != null) {
+            dependencyParser.parse(tree, data, chunks);
+        }
+    }
+
+    /**
+     * Get the tree of the whole text appended so far.
+     *
+     * @return the tree, which belongs to this session
+     */
+    public Tree getTree() {
+        return tree;
+    }
+
+    /**
+     * Get the whole text appended so far.
+     *
+     * @return the text
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Discard the text of this session to start a new one.
+     */
+    public void clear() {
+        text.setLength(0);
+        reset();
+    }
+
+    /**
+     * Release the models of this session.
+     */
+    @Override
+    public void close() {
+        if (generation != null) {
+            Parser.release(generation);
+            generation = null;
+            tagger = null;
+            data = null;
+        }
+    }
+}
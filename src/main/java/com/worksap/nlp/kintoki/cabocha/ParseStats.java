@@ -0,0 +1,285 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the throughput and the latency of parsed sentences and reports them
+ * on a stream.
+ *
+ * <p>
+ * Latencies are recorded in logarithmic histograms, one for all sentences and
+ * one for each range of chunk counts ({@code 0, 1, 2-3, 4-7, ...}), so the
+ * percentiles have a relative error of about 1/8. The time of each analyzer
+ * stage is recorded in a histogram of its own. Sentences found in a cache
+ * count in the throughput and the latencies with the time of their lookup, and
+ * are also shown in a row of their own.
+ */
+class ParseStats implements ParserMonitor, Closeable {
+
+    private static final int CHUNK_GROUPS = 8;
+
+    private final PrintStream out;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final Histogram all = new Histogram();
+    private final Histogram cached = new Histogram();
+    private final Histogram[] byChunks = new Histogram[CHUNK_GROUPS];
+    private final Map<String, Histogram> stages = new ConcurrentHashMap<>();
+    private final List<String> stageNames = new CopyOnWriteArrayList<>();
+    private volatile DependencyParser dependencyParser;
+    private volatile ParseCache cache;
+    private volatile DiskParseCache diskCache;
+    private ScheduledExecutorService reporter;
+
+    ParseStats(PrintStream out) {
+        this.out = out;
+        for (int i = 0; i < CHUNK_GROUPS; i++) {
+            byChunks[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Start printing a report periodically.
+     *
+     * @param seconds
+     *            the interval of reports
+     */
+    void startReporting(long seconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(ParallelRunner.daemonThreadFactory("kintoki-stats"));
+        reporter.scheduleAtFixedRate(this::report, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Set a parse cache whose counters are included in the reports.
+     */
+    void setCache(ParseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set a disk cache whose counters are included in the reports.
+     */
+    void setDiskCache(DiskParseCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    @Override
+    public void stageFinished(int stage, Analyzer analyzer, Tree tree, long nanos) {
+        String name = analyzer.getClass().getSimpleName();
+        Histogram histogram = stages.get(name);
+        if (histogram == null) {
+            histogram = stages.computeIfAbsent(name, k -> {
+                stageNames.add(k);
+                if (analyzer instanceof DependencyParser) {
+                    dependencyParser = (DependencyParser) analyzer;
+                }
+                return new Histogram();
+            });
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    public void sentenceFinished(Tree tree, long nanos) {
+        int chunkSize = tree.getChunkSize();
+        tokens.add(tree.getTokenSize());
+        chunks.add(chunkSize);
+        all.record(nanos);
+        byChunks[chunkGroup(chunkSize)].record(nanos);
+    }
+
+    @Override
+    public void sentenceCached(Tree tree, long nanos) {
+        sentenceFinished(tree, nanos);
+        cached.record(nanos);
+    }
+
+    private static int chunkGroup(int chunkSize) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(chunkSize), CHUNK_GROUPS - 1);
+    }
+
+    private static String chunkGroupName(int group) {
+        if (group <= 1) {
+            return String.valueOf(group);
+        }
+        int low = 1 << (group - 1);
+        return group == CHUNK_GROUPS - 1 ? low + "-" : low + "-" + (2 * low - 1);
+    }
+
+    synchronized void report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long sentences = all.count();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s stats: %d sentences, %d tokens, %d chunks in %.1f s", Constant.PACKAGE, sentences,
+                tokens.sum(), chunks.sum(), seconds));
+        sb.append(String.format(" (%.1f sentences/s, %.1f tokens/s)%n", sentences / seconds, tokens.sum() / seconds));
+        sb.append(String.format("  %-8s %10s %10s %10s %10s %10s  (ms)%n", "chunks", "sentences", "p50", "p95", "p99",
+                "max"));
+        appendRow(sb, "all", all);
+        if (cached.count() > 0) {
+            appendRow(sb, "cached", cached);
+        }
+        for (int i = 0; i < CHUNK_GROUPS; i++) {
+            if (byChunks[i].count() > 0) {
+                appendRow(sb, chunkGroupName(i), byChunks[i]);
+            }
+        }
+
+        long total = 0;
+        for (String name : stageNames) {
+            total += stages.get(name).sum();
+        }
+        if (!stageNames.isEmpty()) {
+            sb.append(String.format("  %-24s %10s %7s %10s %10s %10s %10s  (ms)%n", "stage", "total(s)", "share",
+                    "p50", "p95", "p99", "max"));
+        }
+        for (String name : stageNames) {
+            Histogram histogram = stages.get(name);
+            long nanos = histogram.sum();
+            sb.append(String.format("  %-24s %10.1f %6.1f%% %10.3f %10.3f %10.3f %10.3f%n", name, nanos / 1e9,
+                    total == 0 ? 0.0 : 100.0 * nanos / total, histogram.percentile(0.5) / 1e6,
+                    histogram.percentile(0.95) / 1e6, histogram.percentile(0.99) / 1e6, histogram.max() / 1e6));
+        }
+        DependencyParser parser = dependencyParser;
+        if (parser != null) {
+            long classified = parser.getClassifyCount();
+            long parsed = sentences - cached.count();
+            sb.append(String.format("  svm classify calls: %d (%.1f per parsed sentence)%n", classified,
+                    parsed == 0 ? 0.0 : (double) classified / parsed));
+        }
+        ParseCache parseCache = cache;
+        if (parseCache != null) {
+            sb.append("  cache: ").append(parseCache).append(System.lineSeparator());
+        }
+        DiskParseCache disk = diskCache;
+        if (disk != null) {
+            sb.append("  disk cache: ").append(disk).append(System.lineSeparator());
+        }
+        out.print(sb);
+        out.flush();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Histogram histogram) {
+        sb.append(String.format("  %-8s %10d %10.3f %10.3f %10.3f %10.3f%n", name, histogram.count(),
+                histogram.percentile(0.5) / 1e6, histogram.percentile(0.95) / 1e6, histogram.percentile(0.99) / 1e6,
+                histogram.max() / 1e6));
+    }
+
+    /**
+     * Stop the periodic reports and print the final one.
+     */
+    @Override
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        report();
+    }
+
+    /**
+     * A lock-free histogram of nanosecond values. A bucket covers 1/8 of a power
+     * of two.
+     */
+    static class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            long sub = bucket % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        /**
+         * Get the upper bound of the bucket which holds the given quantile.
+         */
+        long percentile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max());
+                }
+            }
+            return max();
+        }
+    }
+}
@@ -16,17 +16,61 @@
 
 package com.worksap.nlp.kintoki.cabocha;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
 
-public class Parser {
+/**
+ * A dependency parser. Once {@link #open()} has returned, a parser holds only
+ * immutable models and can be shared by any number of threads; the scratch
+ * state of each call is kept in sessions taken from per-analyzer pools. The
+ * models come from {@link ModelRegistry#getDefault()}, so parsers opened with
+ * the same model files share them until {@link #close()}.
+ */
+public class Parser implements Closeable {
+
+    /**
+     * The number of tasks per worker a batch is split into, so that workers
+     * which finish early can steal the rest.
+     */
+    private static final int BATCH_TASKS_PER_WORKER = 8;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    /**
+     * The number of recently parsed sentences kept to warm up reloaded models.
+     */
+    private static final int WARMUP_SENTENCES = 16;
+    private static final int WARMUP_ROUNDS = 2;
 
-    private List<Analyzer> analyzerList = new ArrayList<>();
+    private volatile Generation generation = new Generation(Collections.emptyList());
+    private final AtomicReferenceArray<String> recentTexts = new AtomicReferenceArray<>(WARMUP_SENTENCES);
     private FormatType outputFormat;
     private InputLayerType inputLayer;
     private OutputLayerType outputLayer;
     private Param param;
+    private ParserMonitor monitor;
+    private volatile ParseCache cache;
+    private volatile DiskParseCache diskCache;
+    private boolean ownsDiskCache;
+    private volatile boolean closed;
+    private volatile AsyncGate asyncGate = new AsyncGate(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
 
     /**
      * Create a new instance of Parser class.
@@ -106,27 +150,29 @@ public class Parser {
         default:
             throw new IllegalArgumentException("unknown output layer: " + param.getInt(Param.OUTPUT_LAYER) + "\n");
         }
-        switch (param.getInt(Param.OUTPUT_FORMAT)) {
+        this.outputFormat = toFormatType(param.getInt(Param.OUTPUT_FORMAT));
+    }
+
+    static FormatType toFormatType(int format) {
+        switch (format) {
         case Constant.CABOCHA_FORMAT_TREE:
-            this.outputFormat = FormatType.FORMAT_TREE;
-            break;
+            return FormatType.FORMAT_TREE;
         case Constant.CABOCHA_FORMAT_LATTICE:
-            this.outputFormat = FormatType.FORMAT_LATTICE;
-            break;
+            return FormatType.FORMAT_LATTICE;
         case Constant.CABOCHA_FORMAT_TREE_LATTICE:
-            this.outputFormat = FormatType.FORMAT_TREE_LATTICE;
-            break;
+            return FormatType.FORMAT_TREE_LATTICE;
         case Constant.CABOCHA_FORMAT_XML:
-            this.outputFormat = FormatType.FORMAT_XML;
-            break;
+            return FormatType.FORMAT_XML;
         case Constant.CABOCHA_FORMAT_CONLL:
-            this.outputFormat = FormatType.FORMAT_CONLL;
-            break;
+            return FormatType.FORMAT_CONLL;
         case Constant.CABOCHA_FORMAT_NONE:
-            this.outputFormat = FormatType.FORMAT_NONE;
-            break;
+            return FormatType.FORMAT_NONE;
+        case Constant.CABOCHA_FORMAT_JSON:
+            return FormatType.FORMAT_JSON;
+        case Constant.CABOCHA_FORMAT_BINARY:
+            return FormatType.FORMAT_BINARY;
         default:
-            throw new IllegalArgumentException("unknown output format: " + param.getInt(Param.OUTPUT_FORMAT) + "\n");
+            throw new IllegalArgumentException("unknown output format: " + format + "\n");
         }
     }
 
@@ -138,27 +184,66 @@ public class Parser {
      *             (such as model file, resource file)
      */
     public void open() throws IOException {
+        int cacheSize = param.getInt(Param.CACHE);
+        if (cacheSize > 0) {
+            setCache(new ParseCache((long) cacheSize << 20));
+        }
+        Generation next = new Generation(openAnalyzers());
+        synchronized (this) {
+            Generation old = generation;
+            generation = next;
+            old.release();
+        }
+
+        // opened last, so that a failure above does not leave the directory locked
+        String diskCacheDir = param.getString(Param.DISK_CACHE);
+        if (diskCacheDir != null && !diskCacheDir.isEmpty()) {
+            setDiskCache(new DiskParseCache(Paths.get(diskCacheDir)));
+            ownsDiskCache = true;
+        }
+    }
+
+    /**
+     * Open the analyzers for the layers of this parser, which get their models
+     * from the registry.
+     */
+    private List<Analyzer> openAnalyzers() throws IOException {
+        List<Analyzer> analyzers = new ArrayList<>();
+        try {
+            pushAnalyzers(analyzers);
+        } catch (IOException | RuntimeException e) {
+            // release the models of the analyzers opened so far
+            IOException closeError = closeAnalyzers(analyzers);
+            if (closeError != null) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+        return analyzers;
+    }
+
+    private void pushAnalyzers(List<Analyzer> analyzers) throws IOException {
         switch (this.inputLayer) {
         case INPUT_RAW_SENTENCE: // case 1
         {
             switch (this.outputLayer) {
             case OUTPUT_POS:
-                pushAnalyzer(new MorphAnalyzer());
+                pushAnalyzer(analyzers, new MorphAnalyzer());
                 break;
             case OUTPUT_CHUNK:
-                pushAnalyzer(new MorphAnalyzer());
-                pushAnalyzer(new Chunker());
+                pushAnalyzer(analyzers, new MorphAnalyzer());
+                pushAnalyzer(analyzers, new Chunker());
                 break;
             case OUTPUT_SELECTION:
-                pushAnalyzer(new MorphAnalyzer());
-                pushAnalyzer(new Chunker());
-                pushAnalyzer(new Selector());
+                pushAnalyzer(analyzers, new MorphAnalyzer());
+                pushAnalyzer(analyzers, new Chunker());
+                pushAnalyzer(analyzers, new Selector());
                 break;
             case OUTPUT_DEP:
-                pushAnalyzer(new MorphAnalyzer());
-                pushAnalyzer(new Chunker());
-                pushAnalyzer(new Selector());
-                pushAnalyzer(new DependencyParser());
+                pushAnalyzer(analyzers, new MorphAnalyzer());
+                pushAnalyzer(analyzers, new Chunker());
+                pushAnalyzer(analyzers, new Selector());
+                pushAnalyzer(analyzers, new DependencyParser());
                 break;
             default:
                 break;
@@ -172,16 +257,16 @@ public class Parser {
             case OUTPUT_POS:
                 break;
             case OUTPUT_CHUNK:
-                pushAnalyzer(new Chunker());
+                pushAnalyzer(analyzers, new Chunker());
                 break;
             case OUTPUT_SELECTION:
-                pushAnalyzer(new Chunker());
-                pushAnalyzer(new Selector());
+                pushAnalyzer(analyzers, new Chunker());
+                pushAnalyzer(analyzers, new Selector());
                 break;
             case OUTPUT_DEP:
-                pushAnalyzer(new Chunker());
-                pushAnalyzer(new Selector());
-                pushAnalyzer(new DependencyParser());
+                pushAnalyzer(analyzers, new Chunker());
+                pushAnalyzer(analyzers, new Selector());
+                pushAnalyzer(analyzers, new DependencyParser());
                 break;
             default:
                 break;
@@ -196,11 +281,11 @@ public class Parser {
             case OUTPUT_CHUNK:
                 break;
             case OUTPUT_SELECTION:
-                pushAnalyzer(new Selector());
+                pushAnalyzer(analyzers, new Selector());
                 break;
             case OUTPUT_DEP:
-                pushAnalyzer(new Selector());
-                pushAnalyzer(new DependencyParser());
+                pushAnalyzer(analyzers, new Selector());
+                pushAnalyzer(analyzers, new DependencyParser());
                 break;
             default:
                 break;
@@ -216,7 +301,7 @@ public class Parser {
             case OUTPUT_SELECTION:
                 break;
             case OUTPUT_DEP:
-                pushAnalyzer(new DependencyParser());
+                pushAnalyzer(analyzers, new DependencyParser());
                 break;
             default:
                 break;
@@ -229,9 +314,170 @@ public class Parser {
         }
     }
 
-    private void pushAnalyzer(Analyzer analyzer) throws IOException {
+    private void pushAnalyzer(List<Analyzer> analyzers, Analyzer analyzer) throws IOException {
         analyzer.open(param);
-        this.analyzerList.add(analyzer);
+        analyzers.add(analyzer);
+    }
+
+    private static IOException closeAnalyzers(List<Analyzer> analyzers) {
+        IOException error = null;
+        for (int i = analyzers.size() - 1; i >= 0; i--) {
+            try {
+                analyzers.get(i).close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Load the models again, usually after their files have been replaced, and
+     * swap them in atomically. The new models are warmed up with recently
+     * parsed sentences before the swap, so a broken model is rejected and the
+     * current models are kept. Sentences being parsed finish with the old
+     * models, which are released after the last of them; parsing never waits
+     * for a reload. Models whose files have not changed are shared with the
+     * old models through the registry.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading the
+     *             model files, or the new models fail to parse
+     */
+    public synchronized void reload() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("the parser is closed");
+        }
+        List<Analyzer> analyzers;
+        try {
+            analyzers = openAnalyzers();
+        } catch (RuntimeException e) {
+            // a model file which is broken or still being written
+            throw new IOException("failed to load the models", e);
+        }
+        Generation next = new Generation(analyzers);
+        try {
+            warmUp(next);
+        } catch (RuntimeException e) {
+            IOException closeError = closeAnalyzers(next.analyzers);
+            IOException error = new IOException("the reloaded models failed to parse", e);
+            if (closeError != null) {
+                error.addSuppressed(closeError);
+            }
+            throw error;
+        }
+        Generation old = generation;
+        generation = next;
+        old.release();
+    }
+
+    /**
+     * Run {@link #reload()} on a new background thread.
+     *
+     * @return a future which completes when the new models are in use, or
+     *         completes exceptionally if the current models are kept
+     */
+    public CompletableFuture<Void> reloadAsync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ParallelRunner.daemonThreadFactory("kintoki-reload").newThread(() -> {
+            try {
+                reload();
+                future.complete(null);
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }).start();
+        return future;
+    }
+
+    private void warmUp(Generation next) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int i = 0; i < WARMUP_SENTENCES; i++) {
+                String text = recentTexts.get(i);
+                if (text == null) {
+                    continue;
+                }
+                Tree tree;
+                try {
+                    tree = read(text);
+                } catch (IllegalArgumentException e) {
+                    // a malformed input says nothing about the new models
+                    continue;
+                }
+                tree.setOutputLayer(this.outputLayer);
+                for (Analyzer analyzer : next.analyzers) {
+                    analyzer.parse(tree);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the models of this parser, and close the disk cache which
+     * {@link #open()} has opened. A closed parser cannot parse any more.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in closing a
+     *             model or the disk cache
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // the models are closed now, or by the last sentence still using them
+                generation.release();
+            } catch (IOException e) {
+                error = e;
+            }
+            if (ownsDiskCache) {
+                ownsDiskCache = false;
+                try {
+                    diskCache.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Retain the current models, which stay open until they are released.
+     */
+    Generation retain() {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("the parser is closed");
+            }
+            Generation current = generation;
+            if (current.retain()) {
+                return current;
+            }
+            // the models have been swapped out and released, read again
+        }
+    }
+
+    static void release(Generation generation) {
+        try {
+            generation.release();
+        } catch (IOException e) {
+            System.err.println("failed to release the models: " + e);
+        }
     }
 
     /**
@@ -243,10 +489,34 @@ public class Parser {
      *         return null
      */
     public Tree parse(Tree tree) {
+        Generation current = retain();
+        try {
+            return parse(tree, current.analyzers);
+        } finally {
+            release(current);
+        }
+    }
+
+    private Tree parse(Tree tree, List<Analyzer> analyzers) {
         tree.setOutputLayer(this.outputLayer);
-        for (Analyzer analyzer : analyzerList) {
+        ParserMonitor monitor = this.monitor;
+        if (monitor == null) {
+            for (Analyzer analyzer : analyzers) {
+                analyzer.parse(tree);
+            }
+            return tree;
+        }
+
+        long start = System.nanoTime();
+        long stageStart = start;
+        for (int i = 0; i < analyzers.size(); i++) {
+            Analyzer analyzer = analyzers.get(i);
             analyzer.parse(tree);
+            long now = System.nanoTime();
+            monitor.stageFinished(i, analyzer, tree, now - stageStart);
+            stageStart = now;
         }
+        monitor.sentenceFinished(tree, stageStart - start);
         return tree;
     }
 
@@ -258,6 +528,55 @@ public class Parser {
      * @return a tree object will be returned
      */
     public Tree parse(String text) {
+        Tree tree = parseCached(text);
+        // a cheap sample of the inputs which parse, whatever the thread
+        recentTexts.lazySet(ThreadLocalRandom.current().nextInt(WARMUP_SENTENCES), text);
+        return tree;
+    }
+
+    private Tree parseCached(String text) {
+        ParseCache cache = this.cache;
+        DiskParseCache diskCache = this.diskCache;
+        if (cache == null && diskCache == null) {
+            return parse(read(text));
+        }
+
+        // the caches are keyed by the models, so reloaded models never get old results
+        ParserMonitor monitor = this.monitor;
+        long start = monitor == null ? 0 : System.nanoTime();
+        Generation current = retain();
+        try {
+            Tree tree = cache == null ? null : cache.get(text, inputLayer, outputLayer, current.id);
+            if (tree != null) {
+                if (monitor != null) {
+                    monitor.sentenceCached(tree, System.nanoTime() - start);
+                }
+                return tree;
+            }
+            byte[] fingerprint = diskCache == null ? null : current.fingerprint();
+            tree = diskCache == null ? null : diskCache.get(fingerprint, text, inputLayer, outputLayer);
+            if (tree != null && monitor != null) {
+                monitor.sentenceCached(tree, System.nanoTime() - start);
+            }
+            if (tree == null) {
+                tree = parse(read(text), current.analyzers);
+                if (diskCache != null) {
+                    diskCache.put(fingerprint, text, inputLayer, outputLayer, tree);
+                }
+            }
+            if (cache != null) {
+                cache.put(text, inputLayer, outputLayer, current.id, tree);
+            }
+            return tree;
+        } finally {
+            release(current);
+        }
+    }
+
+    /**
+     * Read a sentence in the input layer of this parser without parsing it.
+     */
+    Tree read(String text) {
         Tree tree = new Tree();
 
         try {
@@ -266,7 +585,258 @@ public class Parser {
             throw new IllegalArgumentException("Format error: [" + text + "] ", e);
         }
 
-        return parse(tree);
+        return tree;
+    }
+
+    /**
+     * Parse a batch of sentences in parallel on the common fork-join pool.
+     *
+     * @param texts
+     *            the sentences to be parsed
+     * @return the trees in the order of {@code texts}
+     * @see #parseBatch(List, ForkJoinPool)
+     */
+    public List<Tree> parseBatch(List<String> texts) {
+        return parseBatch(texts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parse a batch of sentences in parallel. A sentence which occurs several
+     * times in the batch is parsed once, and every later occurrence gets a copy
+     * of the result.
+     *
+     * @param texts
+     *            the sentences to be parsed
+     * @param pool
+     *            the pool which runs the parsing
+     * @return the trees in the order of {@code texts}
+     */
+    public List<Tree> parseBatch(List<String> texts, ForkJoinPool pool) {
+        Map<String, Integer> firstIndex = new HashMap<>();
+        List<String> unique = new ArrayList<>();
+        int[] source = new int[texts.size()];
+        for (int i = 0; i < source.length; i++) {
+            String text = texts.get(i);
+            Integer index = firstIndex.putIfAbsent(text, unique.size());
+            if (index == null) {
+                index = unique.size();
+                unique.add(text);
+            }
+            source[i] = index;
+        }
+
+        Tree[] parsed = new Tree[unique.size()];
+        pool.invoke(new BatchTask(0, parsed.length, grain(parsed.length, pool), i -> parsed[i] = parse(unique.get(i))));
+
+        List<Tree> results = new ArrayList<>(source.length);
+        boolean[] used = new boolean[parsed.length];
+        for (int index : source) {
+            results.add(used[index] ? parsed[index].copy() : parsed[index]);
+            used[index] = true;
+        }
+        return results;
+    }
+
+    /**
+     * Parse a batch of sentence trees in parallel on the common fork-join pool.
+     *
+     * @param trees
+     *            the sentence trees to be parsed
+     * @return the trees in the order of {@code trees}
+     * @see #parseTreeBatch(List, ForkJoinPool)
+     */
+    public List<Tree> parseTreeBatch(List<Tree> trees) {
+        return parseTreeBatch(trees, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parse a batch of sentence trees in parallel. Each tree is parsed in place
+     * as {@link #parse(Tree)} does, and a tree which occurs several times in the
+     * batch is parsed once.
+     *
+     * @param trees
+     *            the sentence trees to be parsed
+     * @param pool
+     *            the pool which runs the parsing
+     * @return the trees in the order of {@code trees}
+     */
+    public List<Tree> parseTreeBatch(List<Tree> trees, ForkJoinPool pool) {
+        Set<Tree> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Tree> unique = new ArrayList<>();
+        for (Tree tree : trees) {
+            if (seen.add(tree)) {
+                unique.add(tree);
+            }
+        }
+        pool.invoke(new BatchTask(0, unique.size(), grain(unique.size(), pool), i -> parse(unique.get(i))));
+        return new ArrayList<>(trees);
+    }
+
+    private static int grain(int size, ForkJoinPool pool) {
+        return Math.max(1, size / (pool.getParallelism() * BATCH_TASKS_PER_WORKER));
+    }
+
+    /**
+     * Runs an action for each index of a range, splitting the range in halves
+     * until it is no longer than the grain.
+     */
+    private static class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int begin;
+        private final int end;
+        private final int grain;
+        private final transient IntConsumer action;
+
+        BatchTask(int begin, int end, int grain, IntConsumer action) {
+            this.begin = begin;
+            this.end = end;
+            this.grain = grain;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin <= grain) {
+                for (int i = begin; i < end; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int middle = (begin + end) >>> 1;
+            invokeAll(new BatchTask(begin, middle, grain, action), new BatchTask(middle, end, grain, action));
+        }
+    }
+
+    /**
+     * Parse a given sentence asynchronously on the executor set by
+     * {@link #setExecutor(Executor, int)}, or on the common fork-join pool by
+     * default.
+     *
+     * @param text
+     *            the sentence to be parsed
+     * @return a future of the tree, which completes exceptionally if the
+     *         parsing fails. Cancelling the future before the parsing starts
+     *         skips it.
+     */
+    public CompletableFuture<Tree> parseAsync(String text) {
+        return asyncGate.supply(() -> parse(text));
+    }
+
+    /**
+     * Parse a stream of sentences, with at most 256 sentences in flight.
+     *
+     * @param sentences
+     *            the publisher of the sentences to be parsed
+     * @return a publisher of the trees
+     * @see #parsePublisher(Flow.Publisher, int)
+     */
+    public Flow.Publisher<Tree> parsePublisher(Flow.Publisher<String> sentences) {
+        return parsePublisher(sentences, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Parse a stream of sentences. Each subscriber to the returned publisher
+     * subscribes a new {@link ParseProcessor} to {@code sentences}, so it
+     * receives the trees in the order of the sentences, and sentences are
+     * requested from {@code sentences} only as the subscriber requests trees.
+     *
+     * @param sentences
+     *            the publisher of the sentences to be parsed
+     * @param maxInFlight
+     *            the maximum number of sentences which are requested but whose
+     *            trees are not yet delivered
+     * @return a publisher of the trees
+     */
+    public Flow.Publisher<Tree> parsePublisher(Flow.Publisher<String> sentences, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        return subscriber -> {
+            ParseProcessor processor = new ParseProcessor(this, maxInFlight);
+            processor.subscribe(subscriber);
+            sentences.subscribe(processor);
+        };
+    }
+
+    /**
+     * Set the executor which runs {@link #parseAsync(String)}.
+     *
+     * <p>
+     * At most {@code maxConcurrency} sentences are parsed at a time; the other
+     * calls are queued without blocking a thread of the caller or of the
+     * executor. This keeps the number of analyzer sessions bounded even when
+     * the executor starts a thread for each task.
+     *
+     * @param executor
+     *            the executor which runs the parsing
+     * @param maxConcurrency
+     *            the maximum number of sentences parsed at a time
+     */
+    public void setExecutor(Executor executor, int maxConcurrency) {
+        this.asyncGate = new AsyncGate(executor, maxConcurrency);
+    }
+
+    /**
+     * Set a monitor which receives the timings of each parsed sentence.
+     *
+     * @param monitor
+     *            the monitor, or null to disable monitoring
+     */
+    public void setMonitor(ParserMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Set a cache of the results of {@link #parse(String)}. A cache can be
+     * shared by any parsers, since a result is only returned to the parser and
+     * the loading of the models which made it. {@link #open()} sets a cache
+     * when the parameter {@code cache} gives its size in megabytes.
+     *
+     * @param cache
+     *            the cache, or null to disable caching
+     */
+    public void setCache(ParseCache cache) {
+        this.cache = cache;
+    }
+
+    public ParseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set a persistent cache of the results of {@link #parse(String)}, which is
+     * looked up after the memory cache. {@link #open()} opens one when the
+     * parameter {@code disk-cache} gives its directory, which {@link #close()}
+     * closes; a cache set by this method is closed by the caller.
+     *
+     * @param diskCache
+     *            the cache, or null to disable it
+     */
+    public synchronized void setDiskCache(DiskParseCache diskCache) {
+        this.diskCache = diskCache;
+        this.ownsDiskCache = false;
+    }
+
+    public DiskParseCache getDiskCache() {
+        return diskCache;
+    }
+
+    FormatType getOutputFormat() {
+        return outputFormat;
+    }
+
+    InputLayerType getInputLayer() {
+        return inputLayer;
+    }
+
+    OutputLayerType getOutputLayer() {
+        return outputLayer;
+    }
+
+    ParserMonitor getMonitor() {
+        return monitor;
     }
 
     /**
@@ -282,4 +852,76 @@ public class Parser {
         return tree.toString(outputFormat);
     }
 
+    /**
+     * Start an incremental parsing of a text which grows at its end, which
+     * parses only the end of the text again on each append. The session does
+     * not use the caches of this parser.
+     *
+     * @return a new session, which should be closed to release its models
+     * @see ParseSession
+     */
+    public ParseSession newSession() {
+        if (inputLayer != InputLayerType.INPUT_RAW_SENTENCE && inputLayer != InputLayerType.INPUT_POS) {
+            throw new IllegalStateException("incremental parsing needs the raw sentence or POS input layer");
+        }
+        return new ParseSession(this);
+    }
+
+    /**
+     * The analyzers of one loading of the models. A generation is retained by
+     * the parser while it is current and by every sentence being parsed with
+     * it, and its analyzers are closed when the last of them releases it.
+     */
+    static final class Generation {
+        private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+        /** unique in the process, so that parsers sharing a cache never get each other's results */
+        final int id;
+        final List<Analyzer> analyzers;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile byte[] fingerprint;
+
+        Generation(List<Analyzer> analyzers) {
+            this.id = NEXT_ID.getAndIncrement();
+            this.analyzers = Collections.unmodifiableList(analyzers);
+        }
+
+        boolean retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() throws IOException {
+            if (references.decrementAndGet() == 0) {
+                IOException error = closeAnalyzers(analyzers);
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+
+        /**
+         * Get the fingerprint of the models of the analyzers for the disk cache,
+         * computed on first use.
+         */
+        byte[] fingerprint() {
+            byte[] value = fingerprint;
+            if (value == null) {
+                List<ModelRegistry.Handle<?>> models = new ArrayList<>();
+                for (Analyzer analyzer : analyzers) {
+                    models.addAll(analyzer.getModels());
+                }
+                value = DiskParseCache.fingerprint(models);
+                fingerprint = value;
+            }
+            return value;
+        }
+    }
 }
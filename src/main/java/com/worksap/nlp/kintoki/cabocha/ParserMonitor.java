@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+/**
+ * Receives the timings of a {@link Parser}. The methods are called on the
+ * parsing threads, so an implementation must be thread-safe and cheap.
+ */
+public interface ParserMonitor {
+
+    /**
+     * Called after an analyzer has processed a sentence.
+     *
+     * @param stage
+     *            the index of the analyzer in the pipeline
+     * @param analyzer
+     *            the analyzer
+     * @param tree
+     *            the sentence
+     * @param nanos
+     *            the elapsed time in nanoseconds
+     */
+    public void stageFinished(int stage, Analyzer analyzer, Tree tree, long nanos);
+
+    /**
+     * Called after a sentence has been parsed by all analyzers.
+     *
+     * @param tree
+     *            the parsed sentence
+     * @param nanos
+     *            the elapsed time in nanoseconds
+     */
+    public void sentenceFinished(Tree tree, long nanos);
+
+    /**
+     * Called after a sentence has been found in a cache of the parser instead
+     * of being parsed.
+     *
+     * @param tree
+     *            the cached sentence
+     * @param nanos
+     *            the elapsed time of the lookup in nanoseconds
+     */
+    public default void sentenceCached(Tree tree, long nanos) {
+    }
+
+    /**
+     * Combine two monitors into one which calls both.
+     *
+     * @param first
+     *            a monitor, or null
+     * @param second
+     *            a monitor, or null
+     * @return a monitor calling {@code first} and then {@code second}, or one of
+     *         them if the other is null
+     */
+    public static ParserMonitor compose(ParserMonitor first, ParserMonitor second) {
+        if (first == null) {
+            return second;
+        } else if (second == null) {
+            return first;
+        }
+        return new ParserMonitor() {
+            @Override
+            public void stageFinished(int stage, Analyzer analyzer, Tree tree, long nanos) {
+                first.stageFinished(stage, analyzer, tree, nanos);
+                second.stageFinished(stage, analyzer, tree, nanos);
+            }
+
+            @Override
+            public void sentenceFinished(Tree tree, long nanos) {
+                first.sentenceFinished(tree, nanos);
+                second.sentenceFinished(tree, nanos);
+            }
+
+            @Override
+            public void sentenceCached(Tree tree, long nanos) {
+                first.sentenceCached(tree, nanos);
+                second.sentenceCached(tree, nanos);
+            }
+        };
+    }
+
+}
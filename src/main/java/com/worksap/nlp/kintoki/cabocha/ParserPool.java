@@ -0,0 +1,315 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lends a parser to at most a given number of callers at a time.
+ *
+ * <p>
+ * Every lease shares one opened {@link Parser}, so the models are loaded once
+ * however large the pool is. The per-call analyzer sessions are created on
+ * first use, so the pool grows lazily up to the number of leases that were
+ * ever held at the same time. A lease is returned by {@link Lease#close()},
+ * usually in a try-with-resources statement.
+ */
+public class ParserPool implements Closeable {
+
+    private final Parser parser;
+    private final boolean ownsParser;
+    private final int maxSize;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final long createdAt = System.nanoTime();
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanosSeen = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * A parser borrowed from the pool.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final long acquiredAt;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(long acquiredAt) {
+            this.acquiredAt = acquiredAt;
+        }
+
+        public Parser getParser() {
+            if (closed.get()) {
+                throw new IllegalStateException("the lease is already returned");
+            }
+            return parser;
+        }
+
+        public Tree parse(String text) {
+            return getParser().parse(text);
+        }
+
+        public Tree parse(Tree tree) {
+            return getParser().parse(tree);
+        }
+
+        private ParserPool pool() {
+            return ParserPool.this;
+        }
+
+        /**
+         * Return the parser to the pool. Closing a lease twice has no effect.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                busyNanos.addAndGet(System.nanoTime() - acquiredAt);
+                inUse.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Statistics of a pool since it was created.
+     */
+    public static class Metrics {
+
+        private final int maxSize;
+        private final int inUse;
+        private final int peakInUse;
+        private final long borrows;
+        private final long timeouts;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final double utilization;
+
+        Metrics(int maxSize, int inUse, int peakInUse, long borrows, long timeouts, long totalWaitNanos,
+                long maxWaitNanos, double utilization) {
+            this.maxSize = maxSize;
+            this.inUse = inUse;
+            this.peakInUse = peakInUse;
+            this.borrows = borrows;
+            this.timeouts = timeouts;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.utilization = utilization;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getInUse() {
+            return inUse;
+        }
+
+        public int getPeakInUse() {
+            return peakInUse;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public double getMeanWaitNanos() {
+            return borrows == 0 ? 0.0 : (double) totalWaitNanos / borrows;
+        }
+
+        /**
+         * Get the fraction of the capacity of the pool which was lent out, from
+         * 0 to 1. Leases which are still held are not counted.
+         */
+        public double getUtilization() {
+            return utilization;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d in_use=%d peak=%d borrows=%d timeouts=%d mean_wait=%.3fms "
+                    + "max_wait=%.3fms utilization=%.1f%%", maxSize, inUse, peakInUse, borrows, timeouts,
+                    getMeanWaitNanos() / 1e6, maxWaitNanos / 1e6, utilization * 100);
+        }
+    }
+
+    /**
+     * Create a new pool which opens a parser.
+     *
+     * @param param
+     *            parameters required in parsing
+     * @param maxSize
+     *            the maximum number of leases held at the same time
+     * @param maxWait
+     *            the maximum time {@link #borrow()} waits for a lease
+     * @param unit
+     *            the unit of {@code maxWait}
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading files
+     *             (such as model file, resource file)
+     */
+    public ParserPool(Param param, int maxSize, long maxWait, TimeUnit unit) throws IOException {
+        this(open(param, maxSize, maxWait, unit), true, maxSize, maxWait, unit);
+    }
+
+    /**
+     * Create a new pool which lends an opened parser.
+     *
+     * @param parser
+     *            the opened parser
+     * @param maxSize
+     *            the maximum number of leases held at the same time
+     * @param maxWait
+     *            the maximum time {@link #borrow()} waits for a lease
+     * @param unit
+     *            the unit of {@code maxWait}
+     */
+    public ParserPool(Parser parser, int maxSize, long maxWait, TimeUnit unit) {
+        this(parser, false, maxSize, maxWait, unit);
+    }
+
+    private ParserPool(Parser parser, boolean ownsParser, int maxSize, long maxWait, TimeUnit unit) {
+        checkLimits(maxSize, maxWait, unit);
+        this.parser = parser;
+        this.ownsParser = ownsParser;
+        this.maxSize = maxSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    private static void checkLimits(int maxSize, long maxWait, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("the pool size must be positive: " + maxSize);
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("the maximum wait must not be negative: " + maxWait);
+        }
+        Objects.requireNonNull(unit, "unit");
+    }
+
+    /**
+     * Open a parser for the pool, once the limits of the pool are valid, so
+     * that invalid limits never leave an opened parser behind.
+     */
+    private static Parser open(Param param, int maxSize, long maxWait, TimeUnit unit) throws IOException {
+        checkLimits(maxSize, maxWait, unit);
+        Parser parser = new Parser(param);
+        parser.open();
+        return parser;
+    }
+
+    /**
+     * Borrow a parser, waiting at most the maximum wait of this pool.
+     *
+     * @return a lease, which must be closed to return the parser
+     * @throws TimeoutException
+     *             if no parser becomes available in time
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public Lease borrow() throws TimeoutException, InterruptedException {
+        return borrow(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Borrow a parser.
+     *
+     * @param maxWait
+     *            the maximum time to wait for a parser
+     * @param unit
+     *            the unit of {@code maxWait}
+     * @return a lease, which must be closed to return the parser
+     * @throws TimeoutException
+     *             if no parser becomes available in time
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public Lease borrow(long maxWait, TimeUnit unit) throws TimeoutException, InterruptedException {
+        long start = System.nanoTime();
+        if (!permits.tryAcquire(maxWait, unit)) {
+            timeouts.incrementAndGet();
+            throw new TimeoutException("no parser is available in " + unit.toMillis(maxWait) + "ms");
+        }
+        long now = System.nanoTime();
+        long wait = now - start;
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(wait);
+        maxWaitNanosSeen.accumulateAndGet(wait, Math::max);
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        return new Lease(now);
+    }
+
+    /**
+     * Return a borrowed parser, which is the same as closing the lease.
+     *
+     * @param lease
+     *            the lease to be returned
+     */
+    public void release(Lease lease) {
+        if (lease.pool() != this) {
+            throw new IllegalArgumentException("the lease belongs to another pool");
+        }
+        lease.close();
+    }
+
+    public Metrics getMetrics() {
+        long elapsed = Math.max(1, System.nanoTime() - createdAt);
+        double utilization = Math.min(1.0, (double) busyNanos.get() / elapsed / maxSize);
+        return new Metrics(maxSize, inUse.get(), peakInUse.get(), borrows.get(), timeouts.get(),
+                totalWaitNanos.get(), maxWaitNanosSeen.get(), utilization);
+    }
+
+    /**
+     * Close the parser if this pool has opened it. A parser given to the
+     * constructor is closed by the caller.
+     *
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in closing a
+     *             model
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsParser) {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the analyzers of a parser as a pipeline, each on its own thread.
+ *
+ * <p>
+ * The stages are connected by bounded {@link SpscQueue}s, so while one sentence
+ * is dependency-parsed the next ones can be chunked and tokenized. The trees
+ * come out in the order they were submitted. Only one model set is loaded,
+ * since the stages share the analyzers of the parser. A pipeline keeps the
+ * models the parser had when it was started until it is closed, so a
+ * {@link Parser#reload()} takes effect in the next pipeline.
+ *
+ * <p>
+ * {@link #submit(Tree)} and {@link #finish()} must be called from a single
+ * producer thread, and {@link #take()} from a single consumer thread, which
+ * must not be the producer unless the pipeline never fills up.
+ */
+public class PipelinedParser implements Closeable {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final Item END = new Item(null);
+
+    private final Parser parser;
+    private final Parser.Generation generation;
+    private final List<Analyzer> analyzers;
+    private volatile boolean closed;
+    private final ParserMonitor monitor;
+    private final List<SpscQueue<Item>> queues;
+    private final Thread[] threads;
+    private boolean finished;
+    private boolean ended;
+
+    private static class Item {
+        final Tree tree;
+        long nanos;
+        RuntimeException error;
+
+        Item(Tree tree) {
+            this.tree = tree;
+        }
+    }
+
+    public PipelinedParser(Parser parser) {
+        this(parser, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Start the stage threads of a pipeline.
+     *
+     * @param parser
+     *            the opened parser whose analyzers are run
+     * @param queueCapacity
+     *            the number of sentences which can wait between two stages
+     */
+    public PipelinedParser(Parser parser, int queueCapacity) {
+        this.parser = parser;
+        this.generation = parser.retain();
+        this.analyzers = generation.analyzers;
+        this.monitor = parser.getMonitor();
+        int stages = analyzers.size();
+        this.queues = new ArrayList<>(stages + 1);
+        for (int i = 0; i <= stages; i++) {
+            queues.add(new SpscQueue<>(queueCapacity));
+        }
+        ThreadFactory factory = ParallelRunner.daemonThreadFactory("kintoki-stage");
+        this.threads = new Thread[stages];
+        for (int i = 0; i < stages; i++) {
+            int stage = i;
+            threads[i] = factory.newThread(() -> runStage(stage));
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Submit a sentence, waiting while the first stage is full.
+     *
+     * @param text
+     *            the sentence to be parsed
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public void submit(String text) throws InterruptedException {
+        submit(parser.read(text));
+    }
+
+    /**
+     * Submit a sentence tree, waiting while the first stage is full.
+     *
+     * @param tree
+     *            the sentence tree to be parsed
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public void submit(Tree tree) throws InterruptedException {
+        if (finished) {
+            throw new IllegalStateException("the pipeline is already finished");
+        }
+        tree.setOutputLayer(parser.getOutputLayer());
+        queues.get(0).put(new Item(tree));
+    }
+
+    /**
+     * Mark the end of the input. {@link #take()} returns null after the last
+     * submitted tree.
+     *
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public void finish() throws InterruptedException {
+        if (!finished) {
+            finished = true;
+            queues.get(0).put(END);
+        }
+    }
+
+    /**
+     * Take the next parsed tree, waiting until it has passed every stage.
+     *
+     * @return the next tree in the order of submission, or null if the input is
+     *         finished and every tree has been taken
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     * @throws RuntimeException
+     *             the exception thrown by an analyzer for this tree; the
+     *             following trees can still be taken
+     */
+    public Tree take() throws InterruptedException {
+        if (ended) {
+            return null;
+        }
+        Item item = queues.get(analyzers.size()).take();
+        if (item == END) {
+            ended = true;
+            return null;
+        }
+        if (item.error != null) {
+            throw item.error;
+        }
+        return item.tree;
+    }
+
+    private void runStage(int stage) {
+        Analyzer analyzer = analyzers.get(stage);
+        SpscQueue<Item> in = queues.get(stage);
+        SpscQueue<Item> out = queues.get(stage + 1);
+        boolean last = stage == analyzers.size() - 1;
+        try {
+            while (true) {
+                Item item = in.take();
+                if (closed) {
+                    // the interrupt is only noticed while waiting
+                    return;
+                }
+                if (item != END && item.error == null) {
+                    long start = monitor != null ? System.nanoTime() : 0;
+                    try {
+                        analyzer.parse(item.tree);
+                    } catch (RuntimeException e) {
+                        item.error = e;
+                    }
+                    if (monitor != null && item.error == null) {
+                        long nanos = System.nanoTime() - start;
+                        item.nanos += nanos;
+                        monitor.stageFinished(stage, analyzer, item.tree, nanos);
+                        if (last) {
+                            monitor.sentenceFinished(item.tree, item.nanos);
+                        }
+                    }
+                }
+                out.put(item);
+                if (item == END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is closed
+        }
+    }
+
+    /**
+     * Stop the stage threads. Trees which are still in the pipeline are
+     * dropped.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Parser.release(generation);
+        }
+    }
+}
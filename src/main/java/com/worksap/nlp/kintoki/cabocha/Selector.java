@@ -95,10 +95,18 @@ public class Selector implements Analyzer {
 
     @Override
     public void parse(Tree tree) {
+        parse(tree, 0);
+    }
+
+    /**
+     * Select the features of the chunks from {@code from}, keeping those of the
+     * chunks before it.
+     */
+    void parse(Tree tree, int from) {
         int chunkSize = tree.getChunkSize();
         int posSize = 2;
 
-        for (int i = 0; i < chunkSize; i++) {
+        for (int i = from; i < chunkSize; i++) {
             Chunk chunk = tree.chunk(i);
             int tokenSize = chunk.getTokenSize();
             for (int j = 0; j < tokenSize; j++) {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a text into sentences while reading it.
+ *
+ * <p>
+ * A sentence ends after {@code 。！？} and the closing brackets or further
+ * terminators which follow them, or at the end of a line. A document ends at a
+ * blank line or at the end of the input.
+ */
+public class SentenceSplitter {
+
+    private static final String TERMINATORS = "。！？";
+    private static final String CLOSING_BRACKETS = "」』）】〕］｝〉》”’)]}";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private final StringBuilder sentence = new StringBuilder();
+    private boolean inDocument;
+    private boolean atLineStart = true;
+
+    public SentenceSplitter(Reader reader) {
+        this.reader = reader;
+    }
+
+    static boolean isTerminator(char c) {
+        return TERMINATORS.indexOf(c) >= 0;
+    }
+
+    static boolean isClosingBracket(char c) {
+        return CLOSING_BRACKETS.indexOf(c) >= 0;
+    }
+
+    /**
+     * Read the next sentence.
+     *
+     * @return the next sentence without surrounding white spaces, an empty string
+     *         at the end of each document, or null at the end of the input
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading the
+     *             input
+     */
+    public String next() throws IOException {
+        sentence.setLength(0);
+        boolean terminated = false;
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '\n') {
+                boolean blank = atLineStart;
+                atLineStart = true;
+                if (sentence.length() > 0) {
+                    break;
+                }
+                if (blank && inDocument) {
+                    inDocument = false;
+                    return "";
+                }
+                continue;
+            }
+            if (c == '\r') {
+                continue;
+            }
+            if (terminated && !isTerminator((char) c) && !isClosingBracket((char) c)) {
+                position--;
+                break;
+            }
+            if (sentence.length() == 0 && Character.isWhitespace(c)) {
+                continue;
+            }
+            atLineStart = false;
+            sentence.append((char) c);
+            terminated |= isTerminator((char) c);
+        }
+
+        int end = sentence.length();
+        while (end > 0 && Character.isWhitespace(sentence.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0) {
+            inDocument = true;
+            return sentence.substring(0, end);
+        }
+        if (inDocument) {
+            inDocument = false;
+            return "";
+        }
+        return null;
+    }
+
+    private int read() throws IOException {
+        if (position >= limit) {
+            limit = reader.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
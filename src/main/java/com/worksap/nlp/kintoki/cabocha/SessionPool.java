@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Keeps per-call scratch objects of an analyzer for reuse. Unlike a
+ * {@code ThreadLocal}, the pool does not grow with the number of threads which
+ * ever used it, only with the number of concurrent calls.
+ */
+class SessionPool<T> {
+
+    private final Queue<T> sessions = new ConcurrentLinkedQueue<>();
+    private final Supplier<T> factory;
+
+    SessionPool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    T acquire() {
+        T session = sessions.poll();
+        return session != null ? session : factory.get();
+    }
+
+    void release(T session) {
+        sessions.offer(session);
+    }
+}
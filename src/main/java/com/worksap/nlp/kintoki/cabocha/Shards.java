@@ -0,0 +1,239 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import com.worksap.nlp.kintoki.cabocha.util.Utils;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects the part of the input which one shard of a run processes, and merges
+ * the outputs of all shards.
+ *
+ * <p>
+ * Shard {@code I} of {@code N} parses the {@code I}-th of {@code N} byte ranges
+ * of every uncompressed input file, split at sentence boundaries, and every
+ * {@code N}-th compressed file. Every shard must be given the same input files
+ * in the same order. Besides its output, a shard writes an index file
+ * ({@code OUTPUT.shard}) which records the length of the output of each range:
+ *
+ * <pre>
+ * I\tN
+ * FILE\tRANGE\tLENGTH
+ * ...
+ * </pre>
+ */
+class Shards {
+
+    static final String INDEX_SUFFIX = ".shard";
+
+    final int index;
+    final int count;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private static class Segment {
+        final Path output;
+        final int file;
+        final int range;
+        final long offset;
+        final long length;
+
+        Segment(Path output, int file, int range, long offset, long length) {
+            this.output = output;
+            this.file = file;
+            this.range = range;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Parse a shard specification.
+     *
+     * @param spec
+     *            {@code I/N}, where {@code 0 <= I < N}
+     */
+    Shards(String spec) {
+        String[] columns = spec.split("/");
+        try {
+            if (columns.length != 2) {
+                throw new NumberFormatException();
+            }
+            index = Integer.parseInt(columns[0]);
+            count = Integer.parseInt(columns[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid shard: " + spec + ", must be I/N");
+        }
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("invalid shard: " + spec + ", must be 0 <= I < N");
+        }
+    }
+
+    /**
+     * Check whether this shard processes a whole file, which cannot be split.
+     *
+     * @param file
+     *            the ordinal of the file in the input list
+     */
+    boolean ownsFile(int file) {
+        return file % count == index;
+    }
+
+    void addSegment(int file, int range, long length) {
+        segments.add(new Segment(null, file, range, 0, length));
+    }
+
+    /**
+     * Write the index of the output, which should be called after the output is
+     * complete.
+     *
+     * @param output
+     *            the output file of this shard
+     */
+    void writeIndex(Path output) throws IOException {
+        Path path = indexPath(output);
+        Path tmp = Paths.get(path + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(index + "\t" + count + "\n");
+            for (Segment segment : segments) {
+                writer.write(segment.file + "\t" + segment.range + "\t" + segment.length + "\n");
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path indexPath(Path output) {
+        return Paths.get(output + INDEX_SUFFIX);
+    }
+
+    /**
+     * Concatenate the outputs of all shards in the order of the input.
+     *
+     * @param inputs
+     *            the output files of the shards, in any order
+     * @param output
+     *            the merged file, or null for the standard output
+     * @throws IOException
+     *             IOexception will be thrown when a shard output or its index
+     *             cannot be read, or a shard is missing
+     */
+    static void merge(List<String> inputs, String output) throws IOException {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("merge requires the output files of the shards");
+        }
+        List<Segment> segments = new ArrayList<>();
+        boolean[] seen = null;
+        for (String input : inputs) {
+            Path path = Paths.get(input);
+            List<String> lines = Files.readAllLines(indexPath(path), StandardCharsets.UTF_8);
+            String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split("\t");
+            if (header.length != 2) {
+                throw new IOException("invalid shard index: " + indexPath(path));
+            }
+            int index;
+            int count;
+            try {
+                index = Integer.parseInt(header[0]);
+                count = Integer.parseInt(header[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid shard index: " + indexPath(path), e);
+            }
+            if (count <= 0) {
+                throw new IOException("invalid shard index: " + indexPath(path));
+            }
+            if (seen == null) {
+                seen = new boolean[count];
+            }
+            if (count != seen.length || index < 0 || index >= count) {
+                throw new IOException(input + " is shard " + index + "/" + count + ", expected N=" + seen.length);
+            }
+            if (seen[index]) {
+                throw new IOException("duplicate shard " + index + "/" + count + ": " + input);
+            }
+            seen[index] = true;
+
+            long offset = 0;
+            for (String line : lines.subList(1, lines.size())) {
+                String[] columns = line.split("\t");
+                if (columns.length != 3) {
+                    throw new IOException("invalid shard index: " + indexPath(path));
+                }
+                Segment segment;
+                try {
+                    segment = new Segment(path, Integer.parseInt(columns[0]), Integer.parseInt(columns[1]), offset,
+                            Long.parseLong(columns[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid shard index: " + indexPath(path), e);
+                }
+                if (segment.length < 0) {
+                    throw new IOException("invalid shard index: " + indexPath(path));
+                }
+                segments.add(segment);
+                offset += segment.length;
+            }
+            if (offset != Files.size(path)) {
+                throw new IOException("the size of " + input + " does not match its shard index");
+            }
+        }
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i]) {
+                throw new IOException("missing shard " + i + "/" + seen.length);
+            }
+        }
+
+        segments.sort(Comparator.<Segment> comparingInt(s -> s.file).thenComparingInt(s -> s.range));
+        try (WritableByteChannel channel = openOutput(output)) {
+            for (Segment segment : segments) {
+                try (FileChannel input = FileChannel.open(segment.output, StandardOpenOption.READ)) {
+                    long position = segment.offset;
+                    long end = segment.offset + segment.length;
+                    while (position < end) {
+                        position += input.transferTo(position, end - position, channel);
+                    }
+                }
+            }
+        }
+    }
+
+    private static WritableByteChannel openOutput(String output) throws IOException {
+        if (!Utils.check(output)) {
+            System.out.flush();
+            return Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+        }
+        Path path = Paths.get(output);
+        if (Cabocha.isGzip(path)) {
+            return Cabocha.createGzip(path);
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+}
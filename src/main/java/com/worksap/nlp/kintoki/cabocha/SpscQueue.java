@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer
+ * thread.
+ *
+ * <p>
+ * The producer publishes an element with an ordered write of the tail, and the
+ * consumer frees a slot with an ordered write of the head, so neither side
+ * takes a lock. The blocking methods spin briefly, then yield, then park, which
+ * keeps the hand-off latency low while a stage is busy without burning a core
+ * when it is idle.
+ */
+class SpscQueue<T> {
+
+    private static final int SPINS = 128;
+    private static final int YIELDS = 128;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    SpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid queue capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    boolean offer(T value) {
+        long t = tail.get();
+        if (t - head.get() == buffer.length) {
+            return false;
+        }
+        buffer[(int) t & mask] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        T value = (T) buffer[index];
+        buffer[index] = null;
+        head.lazySet(h + 1);
+        return value;
+    }
+
+    void put(T value) throws InterruptedException {
+        for (int idle = 0; !offer(value); idle++) {
+            backoff(idle);
+        }
+    }
+
+    T take() throws InterruptedException {
+        T value;
+        for (int idle = 0; (value = poll()) == null; idle++) {
+            backoff(idle);
+        }
+        return value;
+    }
+
+    private static void backoff(int idle) throws InterruptedException {
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
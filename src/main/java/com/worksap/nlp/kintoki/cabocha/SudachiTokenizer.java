@@ -26,30 +26,72 @@ import com.worksap.nlp.sudachi.Tokenizer;
 import com.worksap.nlp.sudachi.Tokenizer.SplitMode;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class SudachiTokenizer {
 
-    private static Dictionary dictionary;
     private Tokenizer tokenizer;
 
-    private SudachiTokenizer() {
+    /**
+     * Create a tokenizer, which is not thread-safe, of a shared dictionary.
+     *
+     * @param dictionary
+     *            the dictionary
+     */
+    public SudachiTokenizer(Dictionary dictionary) {
         tokenizer = dictionary.create();
     }
 
-    private static synchronized void load(String dictPath) throws IOException {
-        if (dictionary == null) {
-            PathAnchor anchor = PathAnchor.filesystem(Paths.get(dictPath)).andThen(PathAnchor.classpath());
-            Config config = Config.defaultConfig(anchor);
-            dictionary = new DictionaryFactory().create(config);
+    /**
+     * Load a dictionary with the default configuration, resolving its files in
+     * a directory and then in the class path.
+     *
+     * @param dictPath
+     *            the dictionary directory
+     * @return the dictionary
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading the
+     *             dictionary files
+     */
+    public static Dictionary loadDictionary(String dictPath) throws IOException {
+        return new DictionaryFactory().create(config(dictPath));
+    }
+
+    /**
+     * Get the files a dictionary is loaded from by
+     * {@link #loadDictionary(String)}, leaving out those found in the class
+     * path.
+     *
+     * @param dictPath
+     *            the dictionary directory
+     * @return the system and user dictionary files and the character
+     *         definition file
+     * @throws IOException
+     *             IOexception will be thrown when error occurs in reading the
+     *             configuration
+     */
+    public static List<Path> dictionaryFiles(String dictPath) throws IOException {
+        Config config = config(dictPath);
+        List<Config.Resource<?>> resources = new ArrayList<>();
+        resources.add(config.getSystemDictionary());
+        resources.addAll(config.getUserDictionaries());
+        resources.add(config.getCharacterDefinition());
+        List<Path> files = new ArrayList<>();
+        for (Config.Resource<?> resource : resources) {
+            if (resource instanceof Config.Resource.Filesystem) {
+                files.add(Paths.get(resource.toString()).toRealPath());
+            }
         }
+        return files;
     }
 
-    public static SudachiTokenizer getInstance(String dictPath) throws IOException {
-        load(dictPath);
-        return new SudachiTokenizer();
+    private static Config config(String dictPath) throws IOException {
+        PathAnchor anchor = PathAnchor.filesystem(Paths.get(dictPath)).andThen(PathAnchor.classpath());
+        return Config.defaultConfig(anchor);
     }
 
     public List<Morpheme> parse(String text) {
@@ -23,6 +23,8 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import com.worksap.nlp.kintoki.cabocha.util.EastAsianWidth;
+import com.worksap.nlp.kintoki.cabocha.util.JsonUtil;
+import com.worksap.nlp.kintoki.cabocha.util.XmlUtil;
 import com.worksap.nlp.sudachi.Morpheme;
 
 public class Tree {
@@ -94,6 +96,47 @@ public class Tree {
     }
 
 
+    /**
+     * Create a deep copy of this tree. The tokens of each chunk in the copy are
+     * the tokens of the copy.
+     *
+     * @return a new tree which shares no mutable state with this tree
+     */
+    public Tree copy() {
+
+        final var copy = new Tree();
+        copy.outputLayer = this.outputLayer;
+        copy.sentence = this.sentence;
+        for (final Token token : this.tokens) {
+            final var t = new Token();
+            t.setSurface(token.getSurface());
+            t.setNormalizedSurface(token.getNormalizedSurface());
+            t.setFeature(token.getFeature());
+            t.setFeatureList(new ArrayList <>(token.getFeatureList()));
+            t.setAdditionalInfo(token.getAdditionalInfo());
+            t.setPos(token.getPos());
+            t.setReading(token.getReading());
+            copy.tokens.add(t);
+        }
+        var tokenPos = 0;
+        for (final Chunk chunk : this.chunks) {
+            final var c = new Chunk();
+            c.setLink(chunk.getLink());
+            c.setHeadPos(chunk.getHeadPos());
+            c.setFuncPos(chunk.getFuncPos());
+            c.setTokenPos(chunk.getTokenPos());
+            c.setScore(chunk.getScore());
+            c.setFeatureList(new ArrayList <>(chunk.getFeatureList()));
+            // chunks hold consecutive runs of the tokens of the tree
+            final var end = Math.min(tokenPos + chunk.getTokenSize(), copy.tokens.size());
+            c.setTokens(new ArrayList <>(copy.tokens.subList(tokenPos, end)));
+            tokenPos = end;
+            copy.chunks.add(c);
+        }
+        return copy;
+    }
+
+
     public void read(final String input, final InputLayerType inputLayer) {
 
         switch (inputLayer) {
@@ -149,7 +192,7 @@ public class Tree {
                 this.chunks.add(this.readHeader(line, chunkId));
                 chunkId++;
             } else {
-                final var token = this.readToken(line);
+                final var token = readToken(line);
                 this.getTokens().add(token);
                 if (!this.chunks.isEmpty() && inputLayer.getValue() > Constant.CABOCHA_INPUT_POS) {
                     this.addTokenToLastChunk(token);
@@ -190,7 +233,7 @@ public class Tree {
     }
 
 
-    private Token readToken(final String line) {
+    static Token readToken(final String line) {
 
         final var columns = line.split("\t");
         if (columns.length < 2 || columns[0].isEmpty() || columns[1].isEmpty()) {
@@ -228,11 +271,19 @@ public class Tree {
             case FORMAT_TREE:
                 this.writeTree(sb);
                 break;
+            case FORMAT_JSON:
+                this.writeJson(sb, outputLayer);
+                break;
             case FORMAT_XML:
+                this.writeXml(sb, outputLayer);
+                break;
             case FORMAT_CONLL:
-                throw new UnsupportedOperationException("Not implemented");
+                this.writeConll(sb, outputLayer);
+                break;
             case FORMAT_NONE:
                 break;
+            case FORMAT_BINARY:
+                throw new IllegalArgumentException("the binary format can only be written to a file\n");
             default:
                 throw new IllegalArgumentException("unknown format: " + outputFormat + "\n");
         }
@@ -291,6 +342,214 @@ public class Tree {
     }
 
 
+    private void writeXml(final StringBuilder sb, final OutputLayerType outputLayer) {
+
+        if (outputLayer == OutputLayerType.OUTPUT_RAW_SENTENCE) {
+            sb.append("<sentence>");
+            XmlUtil.appendEscaped(sb, this.getSentence());
+            sb.append("</sentence>\n");
+            return;
+        }
+
+        sb.append("<sentence>\n");
+        if (outputLayer == OutputLayerType.OUTPUT_POS) {
+            for (var i = 0; i < this.getTokenSize(); i++) {
+                this.writeXmlToken(sb, " ", i, this.token(i));
+            }
+        } else {
+            var tokenPos = 0;
+            for (var i = 0; i < this.getChunkSize(); i++) {
+                final var chunk = this.chunk(i);
+                sb.append(" <chunk id=\"").append(i).append("\" link=\"")
+                        .append((outputLayer == OutputLayerType.OUTPUT_DEP) ? chunk.getLink() : -1)
+                        .append("\" rel=\"D\"");
+                if (outputLayer != OutputLayerType.OUTPUT_CHUNK) {
+                    sb.append(" score=\"").append(chunk.getScore()).append("\" head=\"")
+                            .append(tokenPos + chunk.getHeadPos()).append("\" func=\"")
+                            .append(tokenPos + chunk.getFuncPos()).append('"');
+                }
+                if (outputLayer == OutputLayerType.OUTPUT_SELECTION && !chunk.getFeatureList().isEmpty()) {
+                    sb.append(" feature=\"");
+                    XmlUtil.appendEscaped(sb, String.join(",", chunk.getFeatureList()));
+                    sb.append('"');
+                }
+                sb.append(">\n");
+                for (final Token token : chunk.getTokens()) {
+                    this.writeXmlToken(sb, "  ", tokenPos++, token);
+                }
+                sb.append(" </chunk>\n");
+            }
+        }
+        sb.append("</sentence>\n");
+    }
+
+
+    private void writeXmlToken(final StringBuilder sb, final String indent, final int id, final Token token) {
+
+        sb.append(indent).append("<tok id=\"").append(id).append("\" feature=\"");
+        XmlUtil.appendEscaped(sb, token.getFeature());
+        sb.append("\">");
+        XmlUtil.appendEscaped(sb, token.getSurface());
+        sb.append("</tok>\n");
+    }
+
+
+    /**
+     * Write tokens in the CoNLL-X format. A token attaches to the head token of
+     * its chunk, and the head token of a chunk attaches to the head token of the
+     * linked chunk.
+     */
+    private void writeConll(final StringBuilder sb, final OutputLayerType outputLayer) {
+
+        if (outputLayer == OutputLayerType.OUTPUT_RAW_SENTENCE) {
+            sb.append(this.getSentence()).append("\n\n");
+            return;
+        }
+
+        if (outputLayer == OutputLayerType.OUTPUT_POS) {
+            for (var i = 0; i < this.getTokenSize(); i++) {
+                this.writeConllToken(sb, i, this.token(i), "_", "_", "_");
+            }
+            sb.append('\n');
+            return;
+        }
+
+        final var chunkSize = this.getChunkSize();
+        final var headIds = new int[chunkSize];
+        var tokenPos = 0;
+        for (var i = 0; i < chunkSize; i++) {
+            headIds[i] = tokenPos + this.chunk(i).getHeadPos() + 1;
+            tokenPos += this.chunk(i).getTokenSize();
+        }
+
+        final var hasLink = outputLayer == OutputLayerType.OUTPUT_DEP;
+        final var hasHead = outputLayer != OutputLayerType.OUTPUT_CHUNK;
+        final var feats = new StringBuilder();
+        tokenPos = 0;
+        for (var i = 0; i < chunkSize; i++) {
+            final var chunk = this.chunk(i);
+            for (var j = 0; j < chunk.getTokenSize(); j++) {
+                feats.setLength(0);
+                feats.append("chunk=").append(i);
+                if (hasHead && j == chunk.getHeadPos()) {
+                    feats.append("|head");
+                }
+                if (hasHead && j == chunk.getFuncPos()) {
+                    feats.append("|func");
+                }
+
+                String head = "_";
+                String rel = "_";
+                if (hasLink && j != chunk.getHeadPos()) {
+                    head = String.valueOf(headIds[i]);
+                    rel = "I";
+                } else if (hasLink && chunk.getLink() >= 0) {
+                    head = String.valueOf(headIds[chunk.getLink()]);
+                    rel = "D";
+                } else if (hasLink) {
+                    head = "0";
+                    rel = "ROOT";
+                }
+                this.writeConllToken(sb, tokenPos++, chunk.token(j), feats, head, rel);
+            }
+        }
+        sb.append('\n');
+    }
+
+
+    private void writeConllToken(final StringBuilder sb, final int id, final Token token, final CharSequence feats,
+            final String head, final String rel) {
+
+        sb.append(id + 1).append('\t').append(token.getSurface()).append('\t').append(token.getNormalizedSurface())
+                .append('\t');
+        final List<String> features = token.getFeatureList();
+        if (features.isEmpty() || "*".equals(features.get(0))) {
+            sb.append('_');
+        } else {
+            sb.append(features.get(0));
+        }
+        sb.append('\t');
+        var posSize = 0;
+        for (final String feature : features) {
+            if ("*".equals(feature)) {
+                break;
+            }
+            if (posSize++ > 0) {
+                sb.append('-');
+            }
+            sb.append(feature);
+        }
+        if (posSize == 0) {
+            sb.append('_');
+        }
+        sb.append('\t').append(feats).append('\t').append(head).append('\t').append(rel).append("\t_\t_\n");
+    }
+
+
+    private void writeJson(final StringBuilder sb, final OutputLayerType outputLayer) {
+
+        sb.append("{\"sentence\":");
+        JsonUtil.appendString(sb, this.getSentence());
+        if (outputLayer != OutputLayerType.OUTPUT_RAW_SENTENCE) {
+            sb.append(",\"tokens\":[");
+            for (var i = 0; i < this.getTokenSize(); i++) {
+                final var token = this.token(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"surface\":");
+                JsonUtil.appendString(sb, token.getSurface());
+                sb.append(",\"normalized\":");
+                JsonUtil.appendString(sb, token.getNormalizedSurface());
+                sb.append(",\"feature\":");
+                JsonUtil.appendString(sb, token.getFeature());
+                if (token.getReading() != null) {
+                    sb.append(",\"reading\":");
+                    JsonUtil.appendString(sb, token.getReading());
+                }
+                sb.append('}');
+            }
+            sb.append(']');
+        }
+        if (outputLayer != OutputLayerType.OUTPUT_RAW_SENTENCE && outputLayer != OutputLayerType.OUTPUT_POS) {
+            sb.append(",\"chunks\":[");
+            var tokenPos = 0;
+            for (var i = 0; i < this.getChunkSize(); i++) {
+                final var chunk = this.chunk(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"id\":").append(i);
+                sb.append(",\"token_pos\":").append(tokenPos);
+                sb.append(",\"token_size\":").append(chunk.getTokenSize());
+                if (outputLayer == OutputLayerType.OUTPUT_DEP) {
+                    sb.append(",\"link\":").append(chunk.getLink());
+                    sb.append(",\"score\":");
+                    JsonUtil.appendNumber(sb, chunk.getScore());
+                }
+                if (outputLayer != OutputLayerType.OUTPUT_CHUNK) {
+                    sb.append(",\"head\":").append(chunk.getHeadPos());
+                    sb.append(",\"func\":").append(chunk.getFuncPos());
+                }
+                if (outputLayer == OutputLayerType.OUTPUT_SELECTION) {
+                    sb.append(",\"features\":[");
+                    for (var j = 0; j < chunk.getFeatureListSize(); j++) {
+                        if (j > 0) {
+                            sb.append(',');
+                        }
+                        JsonUtil.appendString(sb, chunk.getFeatureList().get(j));
+                    }
+                    sb.append(']');
+                }
+                sb.append('}');
+                tokenPos += chunk.getTokenSize();
+            }
+            sb.append(']');
+        }
+        sb.append("}\n");
+    }
+
+
     private void writeTree(final StringBuilder sb) {
 
         final var size = this.getChunkSize();
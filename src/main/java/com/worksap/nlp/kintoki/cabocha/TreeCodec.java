@@ -0,0 +1,335 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes a parsed tree into a compact binary record and decodes it back.
+ *
+ * <p>
+ * A record holds the output layer, the sentence, the tokens and the chunks.
+ * Lengths and small numbers are varints, links are 32-bit integers and scores
+ * are 32-bit floats, which hold the scores of the dependency model exactly.
+ * The feature strings of tokens and chunks are either ids of a
+ * {@link FeatureTable} or inline strings if no table is given.
+ */
+class TreeCodec {
+
+    private static final int HAS_NORMALIZED = 1;
+    private static final int HAS_READING = 2;
+    private static final int HAS_POS = 4;
+    private static final int HAS_ADDITIONAL_INFO = 8;
+
+    /**
+     * Assigns ids to feature strings while encoding.
+     */
+    interface FeatureTable {
+        int id(String feature);
+    }
+
+    /**
+     * Feature strings by id, used while decoding.
+     */
+    static class Features {
+        private final String[] strings;
+        private final List<List<String>> lists;
+
+        Features(List<String> features) {
+            strings = features.toArray(new String[0]);
+            lists = new ArrayList<>(strings.length);
+            for (String string : strings) {
+                lists.add(Arrays.asList(string.split(",")));
+            }
+        }
+
+        int size() {
+            return strings.length;
+        }
+    }
+
+    private final FeatureTable table;
+    private final boolean exactScores;
+    private byte[] bytes = new byte[1024];
+    private int length;
+
+    TreeCodec(FeatureTable table) {
+        this(table, false);
+    }
+
+    /**
+     * Create a new codec.
+     *
+     * @param table
+     *            the feature table, or null to write strings inline
+     * @param exactScores
+     *            write the chunk scores as doubles instead of floats
+     */
+    TreeCodec(FeatureTable table, boolean exactScores) {
+        this.table = table;
+        this.exactScores = exactScores;
+    }
+
+    byte[] buffer() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Encode a tree into the buffer of this codec, replacing its content.
+     *
+     * @param tree
+     *            the tree
+     */
+    void encode(Tree tree) {
+        length = 0;
+        OutputLayerType layer = tree.getOutputLayer();
+        writeByte(layer == null ? Constant.CABOCHA_OUTPUT_RAW_SENTENCE : layer.getValue());
+        writeString(tree.getSentence());
+
+        writeVarint(tree.getTokenSize());
+        for (Token token : tree.getTokens()) {
+            String normalized = token.getNormalizedSurface();
+            int flags = 0;
+            if (normalized != null && !normalized.equals(token.getSurface())) {
+                flags |= HAS_NORMALIZED;
+            }
+            flags |= token.getReading() != null ? HAS_READING : 0;
+            flags |= token.getPos() != null ? HAS_POS : 0;
+            flags |= token.getAdditionalInfo() != null ? HAS_ADDITIONAL_INFO : 0;
+            writeByte(flags);
+            writeString(token.getSurface());
+            if ((flags & HAS_NORMALIZED) != 0) {
+                writeString(normalized);
+            }
+            writeFeature(token.getFeature());
+            if ((flags & HAS_READING) != 0) {
+                writeString(token.getReading());
+            }
+            if ((flags & HAS_POS) != 0) {
+                writeString(token.getPos());
+            }
+            if ((flags & HAS_ADDITIONAL_INFO) != 0) {
+                writeString(token.getAdditionalInfo());
+            }
+        }
+
+        List<Chunk> chunks = tree.getChunks();
+        writeVarint(chunks.size());
+        for (Chunk chunk : chunks) {
+            writeVarint(chunk.getTokenSize());
+        }
+        for (Chunk chunk : chunks) {
+            writeVarint(chunk.getHeadPos());
+            writeVarint(chunk.getFuncPos());
+        }
+        for (Chunk chunk : chunks) {
+            writeInt(chunk.getLink());
+        }
+        for (Chunk chunk : chunks) {
+            if (exactScores) {
+                long bits = Double.doubleToLongBits(chunk.getScore());
+                writeInt((int) (bits >>> 32));
+                writeInt((int) bits);
+            } else {
+                writeInt(Float.floatToIntBits((float) chunk.getScore()));
+            }
+        }
+        for (Chunk chunk : chunks) {
+            writeVarint(chunk.getFeatureListSize());
+            for (String feature : chunk.getFeatureList()) {
+                writeFeature(feature);
+            }
+        }
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param in
+     *            the record, read from its position
+     * @param features
+     *            the feature strings, or null if the record has inline strings
+     * @return a new tree
+     */
+    static Tree decode(ByteBuffer in, Features features) {
+        return decode(in, features, false);
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param in
+     *            the record, read from its position
+     * @param features
+     *            the feature strings, or null if the record has inline strings
+     * @param exactScores
+     *            whether the record has the chunk scores as doubles
+     * @return a new tree
+     */
+    static Tree decode(ByteBuffer in, Features features, boolean exactScores) {
+        Tree tree = new Tree();
+        int layer = in.get();
+        for (OutputLayerType type : OutputLayerType.values()) {
+            if (type.getValue() == layer) {
+                tree.setOutputLayer(type);
+            }
+        }
+        tree.setSentence(readString(in));
+
+        int tokenSize = readVarint(in);
+        List<Token> tokens = new ArrayList<>(tokenSize);
+        for (int i = 0; i < tokenSize; i++) {
+            int flags = in.get();
+            Token token = new Token();
+            token.setSurface(readString(in));
+            token.setNormalizedSurface((flags & HAS_NORMALIZED) != 0 ? readString(in) : token.getSurface());
+            if (features == null) {
+                String feature = readString(in);
+                token.setFeature(feature);
+                token.setFeatureList(Arrays.asList(feature.split(",")));
+            } else {
+                int id = readVarint(in);
+                token.setFeature(features.strings[id]);
+                token.setFeatureList(features.lists.get(id));
+            }
+            if ((flags & HAS_READING) != 0) {
+                token.setReading(readString(in));
+            }
+            if ((flags & HAS_POS) != 0) {
+                token.setPos(readString(in));
+            }
+            if ((flags & HAS_ADDITIONAL_INFO) != 0) {
+                token.setAdditionalInfo(readString(in));
+            }
+            tokens.add(token);
+        }
+        tree.setTokens(tokens);
+
+        int chunkSize = readVarint(in);
+        List<Chunk> chunks = new ArrayList<>(chunkSize);
+        int tokenPos = 0;
+        for (int i = 0; i < chunkSize; i++) {
+            Chunk chunk = new Chunk();
+            int size = readVarint(in);
+            if (tokenPos + size > tokenSize) {
+                throw new IllegalArgumentException("Invalid binary record");
+            }
+            chunk.setTokenPos(tokenPos);
+            chunk.setTokens(new ArrayList<>(tokens.subList(tokenPos, tokenPos + size)));
+            tokenPos += size;
+            chunks.add(chunk);
+        }
+        for (Chunk chunk : chunks) {
+            chunk.setHeadPos(readVarint(in));
+            chunk.setFuncPos(readVarint(in));
+        }
+        for (Chunk chunk : chunks) {
+            chunk.setLink(in.getInt());
+        }
+        for (Chunk chunk : chunks) {
+            chunk.setScore(exactScores ? in.getDouble() : Float.intBitsToFloat(in.getInt()));
+        }
+        for (Chunk chunk : chunks) {
+            int size = readVarint(in);
+            List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(features == null ? readString(in) : features.strings[readVarint(in)]);
+            }
+            chunk.setFeatureList(list);
+        }
+        tree.setChunks(chunks);
+        return tree;
+    }
+
+    private void writeFeature(String feature) {
+        if (table == null) {
+            writeString(feature);
+        } else {
+            writeVarint(table.id(feature));
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(length + 1);
+        bytes[length++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(length + 4);
+        bytes[length++] = (byte) (value >>> 24);
+        bytes[length++] = (byte) (value >>> 16);
+        bytes[length++] = (byte) (value >>> 8);
+        bytes[length++] = (byte) value;
+    }
+
+    void writeVarint(int value) {
+        ensureCapacity(length + 5);
+        while ((value & ~0x7f) != 0) {
+            bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length);
+        ensureCapacity(length + utf8.length);
+        System.arraycopy(utf8, 0, bytes, length, utf8.length);
+        length += utf8.length;
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint");
+    }
+
+    static String readString(ByteBuffer in) {
+        int size = readVarint(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), size, StandardCharsets.UTF_8);
+        } else {
+            byte[] utf8 = new byte[size];
+            in.duplicate().get(utf8);
+            value = new String(utf8, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + size);
+        return value;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Encodes parse results into a reusable direct buffer and writes them to a
+ * channel in large blocks.
+ *
+ * <p>
+ * In asynchronous mode, filled buffers are handed to a dedicated writer thread
+ * so that the caller only waits for I/O when all buffers are in flight. A sink
+ * is not thread-safe.
+ */
+class TreeOutputSink implements Closeable {
+
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final int ASYNC_BUFFER_COUNT = 3;
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder text = new StringBuilder();
+    private ByteBuffer buffer;
+    private long position;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> filledBuffers;
+    private final Thread writer;
+    private volatile IOException writerError;
+
+    TreeOutputSink(WritableByteChannel channel, boolean closeChannel, boolean async) {
+        this(channel, closeChannel, async, DEFAULT_BUFFER_SIZE);
+    }
+
+    TreeOutputSink(WritableByteChannel channel, boolean closeChannel, boolean async, int bufferSize) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        if (async) {
+            freeBuffers = new ArrayBlockingQueue<>(ASYNC_BUFFER_COUNT);
+            filledBuffers = new ArrayBlockingQueue<>(ASYNC_BUFFER_COUNT + 1);
+            for (int i = 1; i < ASYNC_BUFFER_COUNT; i++) {
+                freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+            }
+            writer = new Thread(this::writeLoop, "kintoki-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            freeBuffers = null;
+            filledBuffers = null;
+            writer = null;
+        }
+    }
+
+    void write(Tree tree, FormatType format) throws IOException {
+        text.setLength(0);
+        tree.writeTree(text, tree.getOutputLayer(), format);
+        write(text);
+    }
+
+    void write(CharSequence value) throws IOException {
+        // the encoder reads the sequence in place
+        CharBuffer in = CharBuffer.wrap(value);
+        while (true) {
+            int before = buffer.position();
+            CoderResult result = encoder.encode(in, buffer, false);
+            position += buffer.position() - before;
+            if (result.isOverflow()) {
+                writeBuffer();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes written to this sink so far, including the bytes
+     * which are still buffered.
+     */
+    long position() {
+        return position;
+    }
+
+    void flush() throws IOException {
+        writeBuffer();
+        if (writer != null) {
+            // wait until the writer thread has returned every other buffer
+            synchronized (freeBuffers) {
+                while (freeBuffers.size() < ASYNC_BUFFER_COUNT - 1 && writerError == null) {
+                    try {
+                        freeBuffers.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while flushing output");
+                    }
+                }
+            }
+            checkWriter();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        if (writer == null) {
+            writeFully(buffer);
+            buffer.clear();
+            return;
+        }
+        checkWriter();
+        try {
+            filledBuffers.put(buffer);
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing output");
+        }
+        checkWriter();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer bytes = filledBuffers.take();
+                if (bytes.capacity() == 0) {
+                    return;
+                }
+                try {
+                    if (writerError == null) {
+                        writeFully(bytes);
+                    }
+                } catch (IOException e) {
+                    writerError = e;
+                }
+                bytes.clear();
+                freeBuffers.put(bytes);
+                synchronized (freeBuffers) {
+                    freeBuffers.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkWriter() throws IOException {
+        IOException e = writerError;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (writer != null) {
+                filledBuffers.add(ByteBuffer.allocate(0));
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -45,7 +45,7 @@ public class DecoderFeatureIndex extends FeatureIndex {
             throw new IOException("Invalid model");
         }
         int type = bytes.getInt();
-        featureIndex.costFactor = bytes.getDouble();
+        bytes.getDouble(); // cost factor, which TaggerModel takes as a parameter
         featureIndex.maxId = bytes.getInt(); // unsigned int
         featureIndex.xsize = bytes.getInt(); // unsigned int
         int dsize = bytes.getInt(); // unsigned int
@@ -67,6 +67,7 @@ public class DecoderFeatureIndex extends FeatureIndex {
         }
         featureIndex.unigramTempls = unigramTempls;
         featureIndex.bigramTempls = bigramTempls;
+        featureIndex.window = Math.max(window(unigramTempls), window(bigramTempls));
 
         featureIndex.dat = new DoubleArrayTrie(bytes, dsize);
 
@@ -18,24 +18,27 @@ package com.worksap.nlp.kintoki.cabocha.crf;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 abstract class FeatureIndex {
 
     private static final String[] BOS = { "_B-1", "_B-2", "_B-3", "_B-4", "_B-5", "_B-6", "_B-7", "_B-8" };
     private static final String[] EOS = { "_B+1", "_B+2", "_B+3", "_B+4", "_B+5", "_B+6", "_B+7", "_B+8" };
+    private static final Pattern TEMPLATE_ROW = Pattern.compile("%x\\[\\s*([-+]?\\d+)\\s*,");
     protected int maxId;
     protected double[] alpha;
-    protected double costFactor = 1.0;
     protected int xsize;
     protected boolean checkMaxXsize;
     protected int maxXsize;
     protected List<String> unigramTempls;
     protected List<String> bigramTempls;
     protected List<String> y;
+    protected int window;
 
     protected abstract int getID(String s);
 
-    double calcCost(Node node) {
+    double calcCost(Node node, double costFactor) {
         double c = 0.0;
         for (int f : node.fVector) {
             c += alpha[f + node.y];
@@ -43,7 +46,7 @@ abstract class FeatureIndex {
         return costFactor * c;
     }
 
-    double calcPathCost(Node lNode, Node rNode) {
+    double calcPathCost(Node lNode, Node rNode, double costFactor) {
         double c = 0.0;
         for (int f : rNode.lPathFVector) {
             c += alpha[f + lNode.y * y.size() + rNode.y];
@@ -106,27 +109,35 @@ abstract class FeatureIndex {
         }
     }
 
+    /**
+     * Build the features of the positions from the first unstable one of the
+     * tagger, keeping those of the positions before it.
+     */
     void buildFeatures(Tagger tagger) {
+        int from = tagger.getStable();
         List<List<Integer>> featureCache = tagger.getFeatureCache();
-        tagger.setFeatureId(featureCache.size());
+        List<List<Integer>> pathFeatureCache = tagger.getPathFeatureCache();
+        featureCache.subList(from, featureCache.size()).clear();
+        pathFeatureCache.subList(Math.max(from - 1, 0), pathFeatureCache.size()).clear();
 
-        for (int cur = 0; cur < tagger.size(); cur++) {
+        for (int cur = from; cur < tagger.size(); cur++) {
             List<Integer> feature = new ArrayList<>();
             buildFeatureFromTempl(feature, unigramTempls, cur, tagger);
             featureCache.add(feature);
         }
-        for (int cur = 1; cur < tagger.size(); cur++) {
+        for (int cur = Math.max(from, 1); cur < tagger.size(); cur++) {
             List<Integer> feature = new ArrayList<>();
             buildFeatureFromTempl(feature, bigramTempls, cur, tagger);
-            featureCache.add(feature);
+            pathFeatureCache.add(feature);
         }
     }
 
     void rebuildFeatures(Tagger tagger) {
-        int fid = tagger.getFeatureId();
+        int from = tagger.getStable();
         List<List<Integer>> featureCache = tagger.getFeatureCache();
-        for (int pos = 0; pos < tagger.size(); pos++) {
-            List<Integer> f = featureCache.get(fid++);
+        List<List<Integer>> pathFeatureCache = tagger.getPathFeatureCache();
+        for (int pos = from; pos < tagger.size(); pos++) {
+            List<Integer> f = featureCache.get(pos);
             for (int i = 0; i < y.size(); i++) {
                 Node n = new Node();
                 n.x = pos;
@@ -135,20 +146,41 @@ abstract class FeatureIndex {
                 tagger.setNode(n, pos, i);
             }
         }
-        for (int pos = 1; pos < tagger.size(); pos++) {
-            List<Integer> f = featureCache.get(fid++);
+        for (int pos = Math.max(from, 1); pos < tagger.size(); pos++) {
+            List<Integer> f = pathFeatureCache.get(pos - 1);
             for (int i = 0; i < y.size(); i++) {
                 tagger.node(pos, i).lPathFVector = f;
             }
         }
     }
 
-    int ysize() {
-        return y.size();
+    /**
+     * Get the largest distance between a position and a row its features refer
+     * to, so that appending rows only changes the features of this many
+     * positions before them.
+     */
+    int getWindow() {
+        return window;
+    }
+
+    protected static int window(List<String> templs) {
+        int window = 0;
+        Matcher m = TEMPLATE_ROW.matcher("");
+        for (String templ : templs) {
+            m.reset(templ);
+            while (m.find()) {
+                int row = Math.abs(Integer.parseInt(m.group(1)));
+                // rows out of the range are not expanded
+                if (row <= EOS.length) {
+                    window = Math.max(window, row);
+                }
+            }
+        }
+        return window;
     }
 
-    void setCostFactor(double costFactor) {
-        this.costFactor = costFactor;
+    int ysize() {
+        return y.size();
     }
 
     int getXsize() {
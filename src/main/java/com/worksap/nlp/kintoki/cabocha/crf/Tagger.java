@@ -20,48 +20,46 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * Holds the state of tagging one sequence with a {@link TaggerModel}. A tagger
+ * is not thread-safe, but it is cheap to create one for each thread.
+ *
+ * <p>
+ * A tagger which is not cleared keeps the lattice of its last parse, and
+ * {@link #truncate(int)} followed by {@link #add(String...)} and
+ * {@link #parse()} recomputes only the positions whose features refer to the
+ * changed rows, and the ones after them.
+ */
 public class Tagger {
 
-    private static Map<String, FeatureIndex> featureIndexCache = new HashMap<>();
-
     private int ysize;
-    private int featureId;
-    private FeatureIndex featureIndex;
+    private final FeatureIndex featureIndex;
+    private final double costFactor;
     private List<List<String>> x;
     private List<List<Node>> lattice;
     private List<Integer> result;
     private List<List<Integer>> featureCache;
+    private List<List<Integer>> pathFeatureCache;
+    /** the number of leading positions whose features and best costs are valid */
+    private int stable;
 
-    private Tagger(FeatureIndex featureIndex) {
+    Tagger(FeatureIndex featureIndex, double costFactor) {
         this.featureIndex = featureIndex;
+        this.costFactor = costFactor;
         ysize = featureIndex.ysize();
-        featureId = 0;
         x = new ArrayList<>();
         lattice = new ArrayList<>();
         result = new ArrayList<>();
         featureCache = new ArrayList<>();
+        pathFeatureCache = new ArrayList<>();
     }
 
     public static Tagger openBinaryModel(String path, double costFactor) throws IOException {
-        if (costFactor <= 0.0) {
-            throw new IllegalArgumentException("cost factor must be positive");
-        }
-        FeatureIndex featureIndex;
-        synchronized (featureIndexCache) {
-            featureIndex = featureIndexCache.get(path);
-            if (featureIndex == null) {
-                featureIndex = DecoderFeatureIndex.openBinaryModel(path);
-                featureIndexCache.put(path, featureIndex);
-            }
-        }
-        featureIndex.setCostFactor(costFactor);
-        return new Tagger(featureIndex);
+        return TaggerModel.openBinaryModel(path, costFactor).createTagger();
     }
 
     private void viterbi() {
@@ -83,9 +81,9 @@ public class Tagger {
 
         featureIndex.rebuildFeatures(this);
 
-        for (int position = 0; position < lattice.size(); position++) {
+        for (int position = stable; position < lattice.size(); position++) {
             for (Node rNode : lattice.get(position)) {
-                double rNodeCost = featureIndex.calcCost(rNode);
+                double rNodeCost = featureIndex.calcCost(rNode, costFactor);
                 if (position == 0) {
                     rNode.bestCost = rNodeCost;
                 } else {
@@ -99,7 +97,7 @@ public class Tagger {
         rNode.bestCost = Double.NEGATIVE_INFINITY;
         for (int ly = 0; ly < ysize; ly++) {
             Node lNode = node(position - 1, ly);
-            double c = lNode.bestCost + featureIndex.calcPathCost(lNode, rNode) + rNodeCost;
+            double c = lNode.bestCost + featureIndex.calcPathCost(lNode, rNode, costFactor) + rNodeCost;
             if (c > rNode.bestCost) {
                 rNode.bestCost = c;
                 rNode.prev = lNode;
@@ -120,6 +118,7 @@ public class Tagger {
         if (columns.length < xsize) {
             throw new IllegalArgumentException("# x is small: size=" + columns.length + " xsize=" + xsize);
         }
+        invalidateTail();
         List<String> tmpX = Arrays.asList(columns);
         x.add(tmpX);
         result.add(0);
@@ -134,6 +133,32 @@ public class Tagger {
         }
         buildLattice();
         viterbi();
+        stable = x.size();
+    }
+
+    /**
+     * Remove the rows from {@code size}, keeping the lattice of the positions
+     * which do not refer to them.
+     *
+     * @param size
+     *            the number of rows to keep
+     */
+    public void truncate(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative size: " + size);
+        }
+        if (size >= x.size()) {
+            return;
+        }
+        x.subList(size, x.size()).clear();
+        lattice.subList(size, lattice.size()).clear();
+        result.subList(size, result.size()).clear();
+        invalidateTail();
+    }
+
+    private void invalidateTail() {
+        // the features of the last positions refer to the rows after them
+        stable = Math.min(stable, Math.max(x.size() - featureIndex.getWindow(), 0));
     }
 
     public void clear() {
@@ -141,20 +166,22 @@ public class Tagger {
         lattice.clear();
         result.clear();
         featureCache.clear();
+        pathFeatureCache.clear();
+        stable = 0;
     }
 
-    int getFeatureId() {
-        return featureId;
-    }
-
-    void setFeatureId(int featureId) {
-        this.featureId = featureId;
+    int getStable() {
+        return stable;
     }
 
     List<List<Integer>> getFeatureCache() {
         return featureCache;
     }
 
+    List<List<Integer>> getPathFeatureCache() {
+        return pathFeatureCache;
+    }
+
     int size() {
         return x.size();
     }
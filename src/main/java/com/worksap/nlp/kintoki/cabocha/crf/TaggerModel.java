@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha.crf;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable CRF model, which can be shared by any number of
+ * {@link Tagger}s.
+ */
+public class TaggerModel {
+
+    private final FeatureIndex featureIndex;
+    private final double costFactor;
+
+    private TaggerModel(FeatureIndex featureIndex, double costFactor) {
+        this.featureIndex = featureIndex;
+        this.costFactor = costFactor;
+    }
+
+    public static TaggerModel openBinaryModel(String path, double costFactor) throws IOException {
+        if (costFactor <= 0.0) {
+            throw new IllegalArgumentException("cost factor must be positive");
+        }
+        return new TaggerModel(DecoderFeatureIndex.openBinaryModel(path), costFactor);
+    }
+
+    public Tagger createTagger() {
+        return new Tagger(featureIndex, costFactor);
+    }
+
+    public List<String> ynames() {
+        return Collections.unmodifiableList(featureIndex.getY());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha.util;
+
+public class JsonUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonUtil() {
+    }
+
+    /**
+     * Append a JSON string literal to a buffer. Runs of characters that need no
+     * escaping are copied without creating intermediate strings.
+     *
+     * @param sb
+     *            the buffer
+     * @param value
+     *            the string, or null for a JSON null
+     * @return the buffer
+     */
+    public static StringBuilder appendString(StringBuilder sb, CharSequence value) {
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            sb.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            default:
+                sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                break;
+            }
+        }
+        return sb.append(value, start, length).append('"');
+    }
+
+    /**
+     * Append a JSON number to a buffer. NaN and infinities, which JSON cannot
+     * represent, are written as null.
+     *
+     * @param sb
+     *            the buffer
+     * @param value
+     *            the number
+     * @return the buffer
+     */
+    public static StringBuilder appendNumber(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return sb.append("null");
+        }
+        return sb.append(value);
+    }
+}
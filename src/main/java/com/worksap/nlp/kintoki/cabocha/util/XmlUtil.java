@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Works Applications Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.worksap.nlp.kintoki.cabocha.util;
+
+public class XmlUtil {
+
+    private XmlUtil() {
+    }
+
+    /**
+     * Append a string to a buffer, escaping the XML special characters. Runs of
+     * characters that need no escaping are copied without creating intermediate
+     * strings.
+     *
+     * @param sb
+     *            the buffer
+     * @param value
+     *            the string
+     * @return the buffer
+     */
+    public static StringBuilder appendEscaped(StringBuilder sb, CharSequence value) {
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            String entity;
+            switch (value.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            default:
+                continue;
+            }
+            sb.append(value, start, i).append(entity);
+            start = i + 1;
+        }
+        return sb.append(value, start, length);
+    }
+}